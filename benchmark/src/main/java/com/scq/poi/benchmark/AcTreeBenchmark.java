@@ -0,0 +1,76 @@
+package com.scq.poi.benchmark;
+
+import com.scq.poi.algorithm.AcHitBuffer;
+import com.scq.poi.algorithm.AcMatchUtils;
+import com.scq.poi.algorithm.AcTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AC自动机算法树的构建和匹配速度基准: 敏感词数量、文本长度、命中密度、是否编译为DFA
+ * <p>
+ * 运行: java -jar target/benchmarks.jar AcTreeBenchmark
+ *
+ * @author by suchangqin
+ * @date 2023/8/25 15:54
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class AcTreeBenchmark {
+
+    @Param({"10000", "300000"})
+    private int wordCount;
+
+    @Param({"1000000"})
+    private int textLength;
+
+    /**
+     * 每个字符位置插入敏感词的概率
+     */
+    @Param({"0.001", "0.01"})
+    private double hitRate;
+
+    @Param({"true", "false"})
+    private boolean compiled;
+
+    private List<String> wordList;
+    private String text;
+    private AcMatchUtils acMatchUtils;
+    private final AcHitBuffer hitBuffer = new AcHitBuffer();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(20230726L);
+        wordList = DictionaryGenerator.createWordList(random, wordCount);
+        text = DictionaryGenerator.createText(random, wordList, textLength, hitRate);
+        acMatchUtils = new AcMatchUtils(new AcTree(wordList, compiled));
+    }
+
+    @Benchmark
+    public AcTree build() {
+        return new AcTree(wordList, compiled);
+    }
+
+    @Benchmark
+    public int match() {
+        return acMatchUtils.match(text, hitBuffer).size();
+    }
+
+    @Benchmark
+    public Map<String, List<Integer>> matchWords() {
+        return acMatchUtils.match(text);
+    }
+
+    @Benchmark
+    public String filter() {
+        return acMatchUtils.filter(text);
+    }
+}
@@ -0,0 +1,84 @@
+package com.scq.poi.benchmark;
+
+import java.util.*;
+
+/**
+ * 基准测试的敏感词生成器, 相同的随机种子生成相同的敏感词
+ *
+ * @author by suchangqin
+ * @date 2023/9/4 15:20
+ */
+public final class DictionaryGenerator {
+
+    /**
+     * 常用汉字区间, 生成中文敏感词和文本
+     */
+    static final char CJK_START = '一';
+    static final int CJK_RANGE = 3000;
+
+    private DictionaryGenerator() {
+    }
+
+    /**
+     * 生成中文敏感词, 长度2~6, 汉字范围较小, 包含大量公共前缀
+     */
+    public static List<String> createWordList(Random random, int wordCount) {
+        List<String> wordList = new ArrayList<>(wordCount);
+        StringBuilder builder = new StringBuilder(8);
+        for (int i = 0; i < wordCount; i++) {
+            builder.setLength(0);
+            int length = 2 + random.nextInt(5);
+            for (int j = 0; j < length; j++) {
+                builder.append((char) (CJK_START + random.nextInt(CJK_RANGE)));
+            }
+            wordList.add(builder.toString());
+        }
+        return wordList;
+    }
+
+    /**
+     * 生成小写英文敏感词, 长度4~10
+     */
+    public static List<String> createLatinWordList(Random random, int wordCount) {
+        List<String> wordList = new ArrayList<>(wordCount);
+        StringBuilder builder = new StringBuilder(12);
+        for (int i = 0; i < wordCount; i++) {
+            builder.setLength(0);
+            int length = 4 + random.nextInt(7);
+            for (int j = 0; j < length; j++) {
+                builder.append((char) ('a' + random.nextInt(26)));
+            }
+            wordList.add(builder.toString());
+        }
+        return wordList;
+    }
+
+    /**
+     * 生成批注词典的内容, 批注内容包含敏感词的序号
+     *
+     * @return key: 敏感词, value: 批注内容
+     */
+    public static Map<String, String> createCommentMap(List<String> wordList) {
+        Map<String, String> commentMap = new LinkedHashMap<>(wordList.size() * 2);
+        for (int i = 0; i < wordList.size(); i++) {
+            commentMap.put(wordList.get(i), "不合法词汇" + i);
+        }
+        return commentMap;
+    }
+
+    /**
+     * 生成随机中文文本, 每个字符位置以 hitRate 的概率插入一个敏感词
+     */
+    public static String createText(Random random, List<String> wordList, int textLength, double hitRate) {
+        StringBuilder builder = new StringBuilder(textLength + 8);
+        while (builder.length() < textLength) {
+            if (!wordList.isEmpty() && random.nextDouble() < hitRate) {
+                builder.append(wordList.get(random.nextInt(wordList.size())));
+            } else {
+                builder.append((char) (CJK_START + random.nextInt(CJK_RANGE)));
+            }
+        }
+        builder.setLength(textLength);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package com.scq.poi.benchmark;
+
+import com.scq.poi.DocxDocument;
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.metrics.DocxMetrics;
+import com.scq.poi.stream.StreamingDocxAnnotator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 整个文档的批注速度基准: 段落数量、run的碎片程度、命中密度、是否有同一作者的已有批注,
+ * 分别测量 {@link DocxDocument#execute(OutputStream)} 和 {@link StreamingDocxAnnotator}
+ * <p>
+ * 运行: java -jar target/benchmarks.jar DocxDocumentBenchmark
+ *
+ * @author by suchangqin
+ * @date 2023/9/4 16:10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class DocxDocumentBenchmark {
+
+    private static final String AUTHOR = "benchmark";
+
+    @Param({"10000"})
+    private int wordCount;
+
+    @Param({"2000"})
+    private int paragraphCount;
+
+    @Param({"1", "8", "32"})
+    private int runsPerParagraph;
+
+    /**
+     * 每个字符位置插入敏感词的概率
+     */
+    @Param({"0.001", "0.01"})
+    private double hitRate;
+
+    @Param({"false", "true"})
+    private boolean existingComments;
+
+    private CompiledDictionary dictionary;
+    private Path source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> wordList = DictionaryGenerator.createWordList(new Random(20230726L), wordCount);
+        dictionary = CompiledDictionary.compile(DictionaryGenerator.createCommentMap(wordList));
+        SyntheticDocxGenerator generator = new SyntheticDocxGenerator(wordList)
+                .paragraphs(paragraphCount, 200)
+                .runsPerParagraph(runsPerParagraph)
+                .tables(paragraphCount / 100, 5, 4)
+                .hitRate(hitRate);
+        source = Files.createTempFile("docx-benchmark-", ".docx");
+        if (existingComments) {
+            generator.writeWithComments(source, dictionary, AUTHOR);
+        } else {
+            generator.write(source);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+    }
+
+    @Benchmark
+    public long execute() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        try (DocxDocument docxDocument = DocxDocument.open(source, dictionary, DocxMetrics.NOOP)) {
+            docxDocument.setAuthor(AUTHOR);
+            docxDocument.execute(out);
+        }
+        return out.count;
+    }
+
+    @Benchmark
+    public long streaming() throws IOException {
+        StreamingDocxAnnotator annotator = new StreamingDocxAnnotator(dictionary);
+        annotator.setAuthor(AUTHOR);
+        CountingOutputStream out = new CountingOutputStream();
+        annotator.execute(source, out);
+        return out.count;
+    }
+
+    /**
+     * 只统计字节数的输出流, 排除磁盘写入的影响
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
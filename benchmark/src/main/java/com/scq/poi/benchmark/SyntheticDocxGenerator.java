@@ -0,0 +1,141 @@
+package com.scq.poi.benchmark;
+
+import com.scq.poi.DocxDocument;
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.metrics.DocxMetrics;
+import org.apache.poi.xwpf.usermodel.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试的docx文档生成器, 相同的参数和随机种子生成内容相同的文档
+ * <p>
+ * 文档包含: 中文为主的段落, 每个段落的文本切割为多个样式交替的run; 表格; 可选的同一作者已有批注
+ *
+ * @author by suchangqin
+ * @date 2023/9/4 15:40
+ */
+public class SyntheticDocxGenerator {
+
+    private final List<String> wordList;
+    private long seed = 20230904L;
+    private int paragraphCount = 1000;
+    private int paragraphLength = 200;
+    private int runsPerParagraph = 8;
+    private int tableCount = 10;
+    private int tableRows = 5;
+    private int tableColumns = 4;
+    private double hitRate = 0.005;
+
+    /**
+     * @param wordList 插入到文本中的敏感词
+     */
+    public SyntheticDocxGenerator(List<String> wordList) {
+        this.wordList = wordList;
+    }
+
+    public SyntheticDocxGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public SyntheticDocxGenerator paragraphs(int paragraphCount, int paragraphLength) {
+        this.paragraphCount = paragraphCount;
+        this.paragraphLength = paragraphLength;
+        return this;
+    }
+
+    /**
+     * 每个段落切割的run数量, 越大run越碎, 敏感词跨run越多
+     */
+    public SyntheticDocxGenerator runsPerParagraph(int runsPerParagraph) {
+        this.runsPerParagraph = Math.max(1, runsPerParagraph);
+        return this;
+    }
+
+    public SyntheticDocxGenerator tables(int tableCount, int tableRows, int tableColumns) {
+        this.tableCount = tableCount;
+        this.tableRows = tableRows;
+        this.tableColumns = tableColumns;
+        return this;
+    }
+
+    /**
+     * 每个字符位置插入敏感词的概率
+     */
+    public SyntheticDocxGenerator hitRate(double hitRate) {
+        this.hitRate = hitRate;
+        return this;
+    }
+
+    /**
+     * 生成文档, 表格均匀分布在段落之间
+     */
+    public void write(Path target) throws IOException {
+        Random random = new Random(seed);
+        int tableInterval = tableCount == 0 ? Integer.MAX_VALUE : Math.max(1, paragraphCount / tableCount);
+        int tables = 0;
+        try (XWPFDocument document = new XWPFDocument()) {
+            for (int i = 0; i < paragraphCount; i++) {
+                fillParagraph(random, document.createParagraph(), paragraphLength);
+                if ((i + 1) % tableInterval == 0 && tables < tableCount) {
+                    tables++;
+                    XWPFTable table = document.createTable(tableRows, tableColumns);
+                    for (XWPFTableRow row : table.getRows()) {
+                        for (XWPFTableCell cell : row.getTableCells()) {
+                            fillParagraph(random, cell.getParagraphs().get(0), Math.max(1, paragraphLength / 4));
+                        }
+                    }
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(target)) {
+                document.write(out);
+            }
+        }
+    }
+
+    /**
+     * 生成文档, 并以指定作者批注一次, 作为该作者的已有批注
+     */
+    public void writeWithComments(Path target, CompiledDictionary dictionary, String author) throws Exception {
+        Path plain = Files.createTempFile("docx-synthetic-", ".docx");
+        try {
+            write(plain);
+            try (DocxDocument docxDocument = DocxDocument.open(plain, dictionary, DocxMetrics.NOOP);
+                 OutputStream out = Files.newOutputStream(target)) {
+                docxDocument.setAuthor(author);
+                docxDocument.execute(out);
+            }
+        } finally {
+            Files.deleteIfExists(plain);
+        }
+    }
+
+    /**
+     * 生成段落文本并在随机位置切割为多个run, 相邻run的样式不同, 保存时不会合并
+     */
+    private void fillParagraph(Random random, XWPFParagraph paragraph, int length) {
+        String text = DictionaryGenerator.createText(random, wordList, length, hitRate);
+        int runCount = Math.min(runsPerParagraph, text.length());
+        int[] cuts = new int[runCount + 1];
+        for (int i = 1; i < runCount; i++) {
+            cuts[i] = 1 + random.nextInt(text.length() - 1);
+        }
+        cuts[runCount] = text.length();
+        Arrays.sort(cuts, 1, runCount);
+        for (int i = 0; i < runCount; i++) {
+            if (cuts[i] == cuts[i + 1]) {
+                continue;
+            }
+            XWPFRun run = paragraph.createRun();
+            run.setBold(i % 2 == 1);
+            run.setText(text.substring(cuts[i], cuts[i + 1]));
+        }
+    }
+}
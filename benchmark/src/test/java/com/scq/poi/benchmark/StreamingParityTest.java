@@ -0,0 +1,326 @@
+package com.scq.poi.benchmark;
+
+import com.scq.poi.DocxDocument;
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.metrics.DocxMetrics;
+import com.scq.poi.stream.StreamingDocxAnnotator;
+import org.apache.poi.xwpf.usermodel.XWPFComment;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流式批注与DOM批注的结果一致: 在合成的文档上分别批注, 比较每个段落的文本、批注范围及批注的作者和内容。
+ * 批注ID、run的切割方式和批注时间不参与比较
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 18:40
+ */
+class StreamingParityTest {
+
+    private static final String W_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String COMMENTS_RELATION =
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships/comments";
+    private static final String COMMENTS_PART = "word/comments.xml";
+    private static final String AUTHOR = "parity";
+    private static final String OTHER_AUTHOR = "reviewer";
+
+    private static CompiledDictionary dictionary;
+    private static SyntheticDocxGenerator generator;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void setUp() {
+        List<String> wordList = DictionaryGenerator.createWordList(new Random(20230908L), 2000);
+        dictionary = CompiledDictionary.compile(DictionaryGenerator.createCommentMap(wordList));
+        // run切割得很碎, 大部分敏感词跨run
+        generator = new SyntheticDocxGenerator(wordList)
+                .seed(20230908L)
+                .paragraphs(100, 200)
+                .runsPerParagraph(24)
+                .tables(4, 3, 3)
+                .hitRate(0.01);
+    }
+
+    @Test
+    void plainDocument() throws Exception {
+        Path source = directory.resolve("plain.docx");
+        generator.write(source);
+
+        String dom = dump(annotateDom(source));
+        Path streamed = annotateStreaming(source);
+        assertEquals(dom, dump(streamed));
+        int comments = count(dom, AUTHOR);
+        assertTrue(comments > 0, "没有命中敏感词");
+
+        // 新建的 comments.xml 及其关系和内容类型
+        try (ZipFile zip = new ZipFile(streamed.toFile())) {
+            assertNotNull(zip.getEntry(COMMENTS_PART));
+            assertEquals(1, count(read(zip, "word/_rels/document.xml.rels"), COMMENTS_RELATION));
+            assertTrue(read(zip, "[Content_Types].xml").contains("PartName=\"/" + COMMENTS_PART + "\""));
+        }
+        assertEquals(comments, reopen(streamed, AUTHOR));
+    }
+
+    @Test
+    void sameAuthorCommentsAreReplaced() throws Exception {
+        Path plain = directory.resolve("plain.docx");
+        generator.write(plain);
+        Path source = directory.resolve("commented.docx");
+        generator.writeWithComments(source, dictionary, AUTHOR);
+
+        String expected = dump(annotateStreaming(plain));
+        assertEquals(expected, dump(annotateDom(source)));
+        Path streamed = annotateStreaming(source);
+        assertEquals(expected, dump(streamed));
+        assertEquals(count(expected, AUTHOR), reopen(streamed, AUTHOR));
+    }
+
+    @Test
+    void otherAuthorCommentsAreKept() throws Exception {
+        Path source = directory.resolve("commented.docx");
+        generator.writeWithComments(source, dictionary, OTHER_AUTHOR);
+        int others = count(dump(source), OTHER_AUTHOR);
+        assertTrue(others > 0, "没有命中敏感词");
+
+        String dom = dump(annotateDom(source));
+        Path streamed = annotateStreaming(source);
+        String streaming = dump(streamed);
+        assertEquals(dom, streaming);
+        assertEquals(others, count(streaming, OTHER_AUTHOR));
+        assertEquals(others, count(streaming, AUTHOR));
+        assertEquals(others, reopen(streamed, OTHER_AUTHOR));
+    }
+
+    /**
+     * 批注关系指向的部件不存在: 在该位置新建 comments.xml, 不重复增加关系, 删除没有对应批注的范围标签
+     */
+    @Test
+    void missingCommentsPart() throws Exception {
+        Path plain = directory.resolve("plain.docx");
+        generator.write(plain);
+        Path commented = directory.resolve("commented.docx");
+        generator.writeWithComments(commented, dictionary, AUTHOR);
+        Path source = directory.resolve("missing.docx");
+        removeEntry(commented, source, COMMENTS_PART);
+
+        Path streamed = annotateStreaming(source);
+        String expected = dump(annotateStreaming(plain));
+        assertEquals(expected, dump(streamed));
+        try (ZipFile zip = new ZipFile(streamed.toFile())) {
+            assertNotNull(zip.getEntry(COMMENTS_PART));
+            assertEquals(1, count(read(zip, "word/_rels/document.xml.rels"), COMMENTS_RELATION));
+            assertEquals(1, count(read(zip, "[Content_Types].xml"), "PartName=\"/" + COMMENTS_PART + "\""));
+        }
+        assertEquals(count(expected, AUTHOR), reopen(streamed, AUTHOR));
+    }
+
+    private Path annotateDom(Path source) throws IOException {
+        Path target = Files.createTempFile(directory, "dom-", ".docx");
+        try (DocxDocument document = DocxDocument.open(source, dictionary, DocxMetrics.NOOP);
+             OutputStream out = Files.newOutputStream(target)) {
+            document.setAuthor(AUTHOR);
+            document.execute(out);
+        }
+        return target;
+    }
+
+    private Path annotateStreaming(Path source) throws IOException {
+        Path target = Files.createTempFile(directory, "streaming-", ".docx");
+        StreamingDocxAnnotator annotator = new StreamingDocxAnnotator(dictionary);
+        annotator.setAuthor(AUTHOR);
+        annotator.execute(source, target);
+        return target;
+    }
+
+    /**
+     * 用POI重新打开文档
+     *
+     * @return 指定作者的批注数量
+     */
+    private static int reopen(Path path, String author) throws IOException {
+        try (InputStream in = Files.newInputStream(path);
+             XWPFDocument document = new XWPFDocument(in)) {
+            int count = 0;
+            for (XWPFComment comment : document.getComments()) {
+                if (author.equals(comment.getAuthor())) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 正文的规范化内容: 每个段落一行, 为段落文本及按位置排序的批注范围 "[开始,结束) 作者:批注内容"
+     */
+    private static String dump(Path path) throws Exception {
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            Map<String, String> comments = readComments(zip);
+            StringBuilder dump = new StringBuilder();
+            StringBuilder text = new StringBuilder();
+            Map<String, Integer> starts = new HashMap<>();
+            List<String> ranges = new ArrayList<>();
+            boolean inText = false;
+            XMLEventReader reader = XMLInputFactory.newInstance()
+                    .createXMLEventReader(zip.getInputStream(zip.getEntry("word/document.xml")));
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement() && W_NS.equals(event.asStartElement().getName().getNamespaceURI())) {
+                    StartElement element = event.asStartElement();
+                    switch (element.getName().getLocalPart()) {
+                        case "p":
+                            text.setLength(0);
+                            starts.clear();
+                            ranges.clear();
+                            break;
+                        case "t":
+                            inText = true;
+                            break;
+                        case "commentRangeStart":
+                            starts.put(getId(element), text.length());
+                            break;
+                        case "commentRangeEnd":
+                            String id = getId(element);
+                            ranges.add("[" + starts.remove(id) + "," + text.length() + ") " + comments.get(id));
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event.isCharacters() && inText) {
+                    text.append(event.asCharacters().getData());
+                } else if (event.isEndElement() && W_NS.equals(event.asEndElement().getName().getNamespaceURI())) {
+                    String name = event.asEndElement().getName().getLocalPart();
+                    if ("t".equals(name)) {
+                        inText = false;
+                    } else if ("p".equals(name)) {
+                        Collections.sort(ranges);
+                        dump.append(text).append(' ').append(ranges).append('\n');
+                    }
+                }
+            }
+            reader.close();
+            return dump.toString();
+        }
+    }
+
+    /**
+     * @return key: 批注ID, value: "作者:批注内容"
+     */
+    private static Map<String, String> readComments(ZipFile zip) throws Exception {
+        Map<String, String> comments = new HashMap<>();
+        ZipEntry entry = zip.getEntry(COMMENTS_PART);
+        if (entry == null) {
+            return comments;
+        }
+        XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(zip.getInputStream(entry));
+        String id = null;
+        StringBuilder comment = new StringBuilder();
+        boolean inText = false;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement() && W_NS.equals(event.asStartElement().getName().getNamespaceURI())) {
+                StartElement element = event.asStartElement();
+                if ("comment".equals(element.getName().getLocalPart())) {
+                    id = getId(element);
+                    comment.setLength(0);
+                    comment.append(element.getAttributeByName(new QName(W_NS, "author")).getValue()).append(':');
+                } else if ("t".equals(element.getName().getLocalPart())) {
+                    inText = true;
+                }
+            } else if (event.isCharacters() && inText) {
+                comment.append(event.asCharacters().getData());
+            } else if (event.isEndElement() && W_NS.equals(event.asEndElement().getName().getNamespaceURI())) {
+                String name = event.asEndElement().getName().getLocalPart();
+                if ("t".equals(name)) {
+                    inText = false;
+                } else if ("comment".equals(name)) {
+                    comments.put(id, comment.toString());
+                }
+            }
+        }
+        reader.close();
+        return comments;
+    }
+
+    private static String getId(StartElement element) {
+        return element.getAttributeByName(new QName(W_NS, "id")).getValue();
+    }
+
+    /**
+     * 作者的批注范围数量
+     */
+    private static int count(String dump, String author) {
+        return count(dump, ") " + author + ":");
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void removeEntry(Path source, Path target, String removed) throws IOException {
+        try (ZipFile zip = new ZipFile(source.toFile());
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(target))) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().equals(removed)) {
+                    continue;
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    byte[] buffer = new byte[8192];
+                    for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+}
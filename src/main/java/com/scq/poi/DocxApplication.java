@@ -0,0 +1,18 @@
+package com.scq.poi;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * docx文档批注服务启动类, 接口见 {@link com.scq.poi.web.AnnotationController}
+ *
+ * @author by suchangqin
+ * @date 2023/9/6 10:00
+ */
+@SpringBootApplication
+public class DocxApplication {
+
+    public static void main(String[] args) {
+        SpringApplication.run(DocxApplication.class, args);
+    }
+}
@@ -1,5 +1,9 @@
 package com.scq.poi;
 
+import com.scq.poi.metrics.DocxMetrics;
+import com.scq.poi.metrics.DocxPhase;
+import com.scq.poi.utils.CommentXmlWriter;
+import com.scq.poi.utils.LongHashSet;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ooxml.POIXMLDocumentPart;
 import org.apache.poi.ooxml.POIXMLTypeLoader;
@@ -8,11 +12,15 @@ import org.apache.xmlbeans.XmlOptions;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTComment;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTComments;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CommentsDocument;
+import org.springframework.util.CollectionUtils;
 
 import javax.xml.namespace.QName;
+import javax.xml.stream.*;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.time.Instant;
 import java.util.*;
 
 /**
@@ -23,11 +31,29 @@ import java.util.*;
  */
 @Slf4j
 public class DocxComments extends POIXMLDocumentPart {
-    private final List<BigInteger> CLEAR_COMMENT_ID_LIST = new ArrayList<>();
+    /**
+     * 已删除的批注ID
+     */
+    private final LongHashSet clearCommentIds = new LongHashSet();
+    /**
+     * 批注索引: 按作者, 按批注ID
+     */
+    private final Map<String, List<CTComment>> authorIndex = new HashMap<>(16);
+    private final Map<Long, CTComment> idIndex = new HashMap<>(64);
+
+    /**
+     * 本次新增的批注: 批注ID、批注文本、作者, 及共用的批注时间
+     */
+    private long[] newIds = new long[64];
+    private String[] newTexts = new String[64];
+    private String[] newAuthors = new String[64];
+    private int newCount;
+    private String newDate;
 
     private String author = "robot";
     private CTComments comments;
-    private BigInteger maxCommentId;
+    private long maxCommentId;
+    private DocxMetrics metrics = DocxMetrics.NOOP;
 
 
     public DocxComments(PackagePart part) {
@@ -41,77 +67,160 @@ public class DocxComments extends POIXMLDocumentPart {
             comments = CommentsDocument.Factory.newInstance().addNewComments();
         }
 
-        maxCommentId = getMaxCommentId();
+        // 一次遍历建立索引并获取最大的批注ID
+        for (CTComment comment : comments.getCommentArray()) {
+            index(comment);
+        }
+    }
+
+    private void index(CTComment comment) {
+        authorIndex.computeIfAbsent(comment.getAuthor(), key -> new ArrayList<>()).add(comment);
+        BigInteger id = comment.getId();
+        if (id != null) {
+            idIndex.put(id.longValue(), comment);
+            maxCommentId = Math.max(maxCommentId, id.longValue());
+        }
     }
 
     /**
      * 获取已删除的批注内容的ID集合
      */
-    public List<BigInteger> getClearCommentIdList() {
-        return CLEAR_COMMENT_ID_LIST;
+    public LongHashSet getClearCommentIdList() {
+        return clearCommentIds;
     }
 
     /**
-     * 删除指定作者的批注内容
+     * 删除指定作者的批注内容, 作者为null时删除全部批注, 一次性替换批注列表
      *
      */
     public void clearComment() {
-        for (int i = 0; i < comments.getCommentList().size(); i++) {
-            CTComment comment = comments.getCommentArray(i);
-            if (Objects.equals(comment.getAuthor(), author)) {
-                CLEAR_COMMENT_ID_LIST.add(comment.getId());
-                comments.removeComment(i--);
-                continue;
+        List<CTComment> removed;
+        if (author == null) {
+            removed = new ArrayList<>(idIndex.values());
+            authorIndex.clear();
+        } else {
+            removed = authorIndex.remove(author);
+        }
+        if (CollectionUtils.isEmpty(removed)) {
+            return;
+        }
+        for (CTComment comment : removed) {
+            if (comment.getId() != null) {
+                long id = comment.getId().longValue();
+                clearCommentIds.add(id);
+                idIndex.remove(id);
             }
-            if (author == null) {
-                CLEAR_COMMENT_ID_LIST.add(comment.getId());
-                comments.removeComment(i--);
+        }
+        if (author == null) {
+            comments.setCommentArray(new CTComment[0]);
+            return;
+        }
+        CTComment[] all = comments.getCommentArray();
+        List<CTComment> kept = new ArrayList<>(all.length - removed.size());
+        for (CTComment comment : all) {
+            if (!Objects.equals(comment.getAuthor(), author)) {
+                kept.add(comment);
             }
         }
+        comments.setCommentArray(kept.toArray(new CTComment[0]));
+        // 替换后重新建立索引, 避免引用到被替换的对象
+        authorIndex.clear();
+        idIndex.clear();
+        for (CTComment comment : comments.getCommentArray()) {
+            index(comment);
+        }
     }
 
     /**
-     * 新增批注内容
+     * 新增批注内容, 只记录批注ID、作者和批注文本, 在 {@link #commit()} 时流式写出
      *
      * @param text 批注的文本
      * @return 新增的批注ID
      */
-    public BigInteger createComment(String text) {
+    public long createComment(String text) {
+        if (newCount == newIds.length) {
+            int capacity = newCount * 2;
+            newIds = Arrays.copyOf(newIds, capacity);
+            newTexts = Arrays.copyOf(newTexts, capacity);
+            newAuthors = Arrays.copyOf(newAuthors, capacity);
+        }
+        if (newDate == null) {
+            // 本次新增的批注共用同一个时间
+            newDate = CommentXmlWriter.formatDate(Instant.now());
+        }
         // 维护最大的批注ID , 避免重复
-        maxCommentId = maxCommentId.add(BigInteger.ONE);
-        CTComment ctComment = comments.addNewComment();
-        ctComment.setAuthor(author);
-        ctComment.setInitials("");
-        ctComment.setDate(new GregorianCalendar(Locale.CHINA));
-        ctComment.addNewP().addNewR().addNewT().setStringValue(text);
-        ctComment.setId(maxCommentId);
+        maxCommentId++;
+        newIds[newCount] = maxCommentId;
+        newTexts[newCount] = text;
+        newAuthors[newCount] = author;
+        newCount++;
         return maxCommentId;
     }
 
     /**
-     * 获取当前最多的批注ID
+     * 本次新增的批注数量
      */
-    public BigInteger getMaxCommentId() {
-        BigInteger cId = BigInteger.ZERO;
-        for (CTComment ctComment : comments.getCommentList()) {
-            if (ctComment.getId().compareTo(cId) > 0) {
-                cId = ctComment.getId();
-            }
-        }
-        return cId;
+    public int getNewCommentCount() {
+        return newCount;
+    }
+
+    /**
+     * 按批注ID获取已有的批注, 不包括本次新增的批注
+     *
+     * @return 批注, 不存在或已删除时返回null
+     */
+    public CTComment getComment(long commentId) {
+        return idIndex.get(commentId);
+    }
+
+    /**
+     * 获取指定作者已有的批注, 不包括本次新增的批注
+     */
+    public List<CTComment> getComments(String author) {
+        return Collections.unmodifiableList(authorIndex.getOrDefault(author, Collections.emptyList()));
+    }
+
+    /**
+     * 获取当前最大的批注ID
+     */
+    public long getMaxCommentId() {
+        return maxCommentId;
     }
 
+    /**
+     * 保存批注: 保留的已有批注由XMLBeans逐段序列化后以StAX复制, 在末尾写出本次新增的批注, 不创建新增批注的XMLBeans对象
+     */
     @Override
     protected void commit() throws IOException {
+        long begin = System.nanoTime();
         XmlOptions xmlOptions = new XmlOptions(POIXMLTypeLoader.DEFAULT_XML_OPTIONS);
         xmlOptions.setSaveSyntheticDocumentElement(new QName(CTComments.type.getName().getNamespaceURI(), "comments"));
         PackagePart part = getPackagePart();
-        OutputStream out = part.getOutputStream();
-        comments.save(out, xmlOptions);
-        out.close();
+        try (InputStream in = comments.newInputStream(xmlOptions); OutputStream out = part.getOutputStream()) {
+            XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(in);
+            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+            CommentXmlWriter.copyComments(reader, writer, clearCommentIds, this::writeNewComments);
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("批注保存异常", e);
+        }
+        metrics.recordPhase(DocxPhase.COMMIT, System.nanoTime() - begin);
+    }
+
+    private void writeNewComments(XMLEventWriter writer, String prefix) throws XMLStreamException {
+        for (int i = 0; i < newCount; i++) {
+            CommentXmlWriter.writeComment(writer, prefix, newIds[i], newAuthors[i], newDate, newTexts[i]);
+        }
     }
 
     public void setAuthor(String author) {
         this.author = author;
     }
+
+    /**
+     * 设置处理指标, 记录保存批注的耗时
+     */
+    public void setMetrics(DocxMetrics metrics) {
+        this.metrics = metrics;
+    }
 }
@@ -1,42 +1,117 @@
 package com.scq.poi;
 
+import com.scq.poi.algorithm.AcHitBuffer;
 import com.scq.poi.algorithm.AcMatchUtils;
-import com.scq.poi.algorithm.AcTree;
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.dictionary.ParagraphMatchCache;
+import com.scq.poi.image.ImageTextStage;
+import com.scq.poi.metrics.DocxCounter;
+import com.scq.poi.metrics.DocxMetrics;
+import com.scq.poi.metrics.DocxPhase;
+import com.scq.poi.utils.ByteBufferInputStream;
 import com.scq.poi.utils.DocxHelper;
+import com.scq.poi.utils.DocxPackageWriter;
+import com.scq.poi.utils.LongHashSet;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ooxml.POIXMLDocumentPart;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.openxml4j.opc.PackagePartName;
 import org.apache.poi.openxml4j.opc.PackagingURIHelper;
 import org.apache.poi.xwpf.usermodel.*;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTMarkup;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTR;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * 自定义word docx文档处理类
+ * <p>
+ * 以 {@link #open(Path, CompiledDictionary, DocxMetrics)} 打开的文档以随机访问的方式打开zip, 只解压和解析用到的xml部件,
+ * 图片等部件在保存前一直留在磁盘上, 打开前检查单个条目解压后的大小, 避免zip炸弹耗尽内存; 处理完后需调用 {@link #close()} 关闭, 源文件不会被修改。
+ * 以文件路径构造的文档整个读入内存, 与源文件无关。
  *
  * @author by suchangqin
  * @date 2023/7/18 17:45
  */
-public class DocxDocument {
+@Slf4j
+public class DocxDocument implements Closeable {
 
     private static final String COMMENTS_XML_PATH = "/word/comments.xml";
     private static final String WORD_COMMENTS_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.comments+xml";
+    /**
+     * 文档文本总长度超过该值时并行匹配
+     */
+    private static final int PARALLEL_MATCH_THRESHOLD = 1 << 16;
+    /**
+     * 以随机访问方式打开的文档, 单个zip条目声明的解压后大小上限(字节)
+     */
+    private static final long MAX_ENTRY_SIZE = 512L << 20;
 
     private final XWPFDocument document;
-    private final Map<String, String> addCommentMap;
-    private AcMatchUtils acMatchUtils;
+    /**
+     * 编译后的批注词典, 可被多个文档共享
+     */
+    private final CompiledDictionary dictionary;
+    /**
+     * 段落的命中结果集, 单线程匹配时复用
+     */
+    private final AcHitBuffer hitBuffer = new AcHitBuffer();
+    /**
+     * 以下为批注段落时复用的数组: 段落中有文本的run的索引, 切割点, 按开始位置排序的命中, 每次命中的批注ID
+     */
+    private final RunIndex runIndex = new RunIndex();
+    private int[] cuts = new int[32];
+    private long[] startOrder = new long[16];
+    private long[] commentIds = new long[16];
     private DocxComments docxComments;
+    /**
+     * 处理指标, 计数在 {@link #execute()} 结束时一次记录
+     */
+    private final DocxMetrics metrics;
+    private long runCount;
+    private long splitCount;
+    /**
+     * 源docx文档文件, 只有以 {@link #open(Path, CompiledDictionary, DocxMetrics)} 打开时不为null(zip在关闭前一直打开), 保存时从源文件原样复制未修改的部件
+     */
+    private final Path source;
+    /**
+     * 图片文本提取阶段, 为null时不处理图片
+     */
+    private ImageTextStage imageTextStage;
+    /**
+     * 按文档顺序提交的图片, 在匹配阶段收集, 批注阶段使用
+     */
+    private final List<ImageRun> images = new ArrayList<>();
+    /**
+     * 跨文档的段落匹配结果缓存, 为null时每个段落都匹配
+     */
+    private ParagraphMatchCache matchCache;
+    /**
+     * 并行匹配段落的线程池, 为null时在当前线程匹配
+     */
+    private ForkJoinPool matchPool;
 
     /**
      * 创建 自定义word docx文档处理对象
@@ -50,19 +125,136 @@ public class DocxDocument {
      * @throws IOException 异常
      */
     public DocxDocument(String filePath, Map<String, String> addCommentMap) throws Exception {
-        this.document = new XWPFDocument(Files.newInputStream(Paths.get(filePath)));
-        this.addCommentMap = addCommentMap;
-        createAcTree();
-        createDocxComment();
+        this(filePath, CompiledDictionary.compile(addCommentMap));
+    }
+
+    /**
+     * 使用已编译的批注词典创建 自定义word docx文档处理对象, 词典不可变, 多个文档可共用同一个词典而无需重复构建算法树
+     *
+     * @param filePath   docx文档文件路径 , 必须是docx文档且后缀名是docx
+     * @param dictionary 编译后的批注词典, 见 {@link CompiledDictionary#compile(Map)} 和 {@link CompiledDictionary#load(java.nio.file.Path)}
+     * @throws IOException 异常
+     */
+    public DocxDocument(String filePath, CompiledDictionary dictionary) throws Exception {
+        this(filePath, dictionary, DocxMetrics.NOOP);
+    }
+
+    /**
+     * 使用已编译的批注词典创建 自定义word docx文档处理对象, 并记录各阶段的耗时和计数
+     *
+     * @param filePath   docx文档文件路径 , 必须是docx文档且后缀名是docx
+     * @param dictionary 编译后的批注词典
+     * @param metrics    处理指标, 见 {@link com.scq.poi.metrics.MicrometerDocxMetrics}
+     * @throws IOException 异常
+     */
+    public DocxDocument(String filePath, CompiledDictionary dictionary, DocxMetrics metrics) throws Exception {
+        this(() -> readDocumentInMemory(Paths.get(filePath)), null, dictionary, metrics);
+    }
+
+    private DocxDocument(DocumentReader reader, Path source, CompiledDictionary dictionary, DocxMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.source = source;
+        long begin = System.nanoTime();
+        this.document = reader.read();
+        this.dictionary = dictionary;
+        try {
+            createDocxComment();
+        } catch (InvalidFormatException e) {
+            document.getPackage().revert();
+            throw new IOException("批注内容创建失败", e);
+        }
+        metrics.recordPhase(DocxPhase.PARSE, System.nanoTime() - begin);
+    }
+
+    /**
+     * 从输入流读取docx文档, 输入流读取完后不会被关闭
+     *
+     * @param input      docx文档的输入流
+     * @param dictionary 编译后的批注词典
+     * @param metrics    处理指标, 不记录时为 {@link DocxMetrics#NOOP}
+     * @return 文档处理对象
+     * @throws IOException 读取或解析异常
+     */
+    public static DocxDocument open(InputStream input, CompiledDictionary dictionary, DocxMetrics metrics) throws IOException {
+        return new DocxDocument(() -> new XWPFDocument(input), null, dictionary, metrics);
+    }
+
+    /**
+     * 以随机访问的方式打开docx文档文件, 处理完后必须调用 {@link #close()} 释放源文件
+     *
+     * @param path       docx文档文件路径
+     * @param dictionary 编译后的批注词典
+     * @param metrics    处理指标, 不记录时为 {@link DocxMetrics#NOOP}
+     * @return 文档处理对象
+     * @throws IOException 读取或解析异常
+     */
+    public static DocxDocument open(Path path, CompiledDictionary dictionary, DocxMetrics metrics) throws IOException {
+        return new DocxDocument(() -> readDocument(path), path, dictionary, metrics);
     }
 
+    /**
+     * 从内存中的docx文档数据读取, 不修改缓冲区的位置
+     *
+     * @param buffer     docx文档数据, 从缓冲区的当前位置读取到上限
+     * @param dictionary 编译后的批注词典
+     * @param metrics    处理指标, 不记录时为 {@link DocxMetrics#NOOP}
+     * @return 文档处理对象
+     * @throws IOException 读取或解析异常
+     */
+    public static DocxDocument open(ByteBuffer buffer, CompiledDictionary dictionary, DocxMetrics metrics) throws IOException {
+        return new DocxDocument(() -> new XWPFDocument(new ByteBufferInputStream(buffer.duplicate())), null, dictionary, metrics);
+    }
+
+    /**
+     * 将docx文档文件整个读入内存, 之后与源文件无关
+     */
+    private static XWPFDocument readDocumentInMemory(Path path) throws IOException {
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(path))) {
+            return new XWPFDocument(input);
+        }
+    }
+
+    /**
+     * 以随机访问的方式打开docx文档文件, 部件在使用时才从文件解压; 以读写方式打开才能新增批注部件, 关闭时使用 {@link OPCPackage#revert()} 不写回源文件
+     */
+    private static XWPFDocument readDocument(Path path) throws IOException {
+        checkEntrySize(path);
+        OPCPackage opcPackage;
+        try {
+            opcPackage = OPCPackage.open(path.toFile(), PackageAccess.READ_WRITE);
+        } catch (InvalidFormatException e) {
+            throw new IOException("docx文档格式错误: " + path, e);
+        }
+        try {
+            return new XWPFDocument(opcPackage);
+        } catch (IOException | RuntimeException e) {
+            opcPackage.revert();
+            throw e;
+        }
+    }
+
+    /**
+     * 打开前按zip目录检查每个条目声明的解压后大小, 只作用于本文档, 不修改POI的全局限制;
+     * 实际解压时的压缩率仍由POI的 ZipSecureFile 检查
+     */
+    private static void checkEntrySize(Path path) throws IOException {
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getSize() > MAX_ENTRY_SIZE) {
+                    throw new IOException("docx文档的条目过大: " + entry.getName() + ", " + entry.getSize() + " 字节, 上限 " + MAX_ENTRY_SIZE);
+                }
+            }
+        }
+    }
 
     /**
-     * 基于AC自动机算法, 构建算法树
+     * 文档的读取方式, 读取耗时计入 {@link DocxPhase#PARSE}
      */
-    private void createAcTree() {
-        ArrayList<String> list = new ArrayList<>(addCommentMap.keySet());
-        this.acMatchUtils = new AcMatchUtils(new AcTree(list));
+    @FunctionalInterface
+    private interface DocumentReader {
+        XWPFDocument read() throws IOException;
     }
 
     /**
@@ -91,6 +283,7 @@ public class DocxDocument {
             document.addRelation(null, XWPFRelation.COMMENT, docxComments);
         }
 
+        docxComments.setMetrics(metrics);
         this.docxComments = docxComments;
     }
 
@@ -104,277 +297,399 @@ public class DocxDocument {
         docxComments.setAuthor(author);
     }
 
+    /**
+     * 设置图片文本提取阶段, 设置后提取文档中图片的文本并匹配敏感词, 批注范围为图片所在的run;
+     * 只有本类支持图片, {@link com.scq.poi.stream.StreamingDocxAnnotator} 及批注服务不处理图片
+     *
+     * @param imageTextStage 图片文本提取阶段, 可被多个文档共用
+     */
+    public void setImageTextStage(ImageTextStage imageTextStage) {
+        this.imageTextStage = imageTextStage;
+    }
+
+    /**
+     * 设置段落匹配结果缓存, 设置后与之前处理过的文档相同的段落直接使用缓存的命中结果
+     *
+     * @param matchCache 段落匹配结果缓存, 可被多个文档共用
+     */
+    public void setMatchCache(ParagraphMatchCache matchCache) {
+        this.matchCache = matchCache;
+    }
+
+    /**
+     * 设置并行匹配段落的线程池, 文本较多时在该线程池中并行匹配; 未设置时在当前线程匹配,
+     * 在有界的处理线程池中使用时不会占用公共线程池, 并发度由调用方控制
+     *
+     * @param matchPool 并行匹配的线程池, 可被多个文档共用
+     */
+    public void setMatchPool(ForkJoinPool matchPool) {
+        this.matchPool = matchPool;
+    }
+
     /**
      * 对文档增加指定批注批注
+     * 分两个阶段处理: 1.按文档顺序提取全部段落的文本, 匹配敏感词(设置了 {@link #setMatchPool(ForkJoinPool)} 时并行), 此阶段不修改文档
+     * 2.单线程按相同顺序创建批注、分割run, 批注ID与逐个段落处理时完全相同
+     * <p>
+     * 段落由 {@link DocxParagraphIterator} 遍历, 包括正文、表格、内容控件、文本框、页眉页脚、脚注尾注, 两个阶段各遍历一次, 不保存段落对象
      *
-     * @return 处理完后的文档
+     * @return 处理完后的文档, 以 {@link #open(Path, CompiledDictionary, DocxMetrics)} 打开的文档不能调用其close方法(会写回源文件), 应调用 {@link #close()}
      */
     public XWPFDocument execute() {
+        long begin = System.nanoTime();
         // 检查当前作者有没有批注过 , 有则删除当前作者的全部批注
         docxComments.clearComment();
-        // 先处理表格
-        for (XWPFTable table : document.getTables()) {
-            for (XWPFTableRow row : table.getRows()) {
-                for (XWPFTableCell cell : row.getTableCells()) {
-                    for (XWPFParagraph paragraph : cell.getParagraphs()) {
-                        dealDocxParagraph(paragraph);
-                    }
-                }
-            }
+        begin = recordPhase(DocxPhase.CLEAR_COMMENT, begin);
+        // 一次遍历删除已删除批注的范围标签和引用, WPS在线编辑插入的内容和其它内容不在同一级, 因此遍历每个部件的全部内容
+        LongHashSet clearCommentIds = docxComments.getClearCommentIdList();
+        for (Iterator<IBody> parts = DocxParagraphIterator.getTextParts(document); parts.hasNext(); ) {
+            DocxHelper.clearCommentXml(DocxParagraphIterator.getContainer(parts.next()), clearCommentIds);
         }
-        // 再处理普通段落
-        List<XWPFParagraph> paragraphs = document.getParagraphs();
-        for (XWPFParagraph paragraph : paragraphs) {
-            dealDocxParagraph(paragraph);
+        begin = recordPhase(DocxPhase.CLEAR_MARKUP, begin);
+        AcHitBuffer[] hits = matchParagraphs();
+        begin = recordPhase(DocxPhase.MATCH, begin);
+        int i = 0;
+        int image = 0;
+        long hitCount = 0;
+        for (Iterator<XWPFParagraph> paragraphs = new DocxParagraphIterator(document); paragraphs.hasNext(); i++) {
+            XWPFParagraph paragraph = paragraphs.next();
+            hitCount += hits[i] == null ? 0 : hits[i].size();
+            // 段落的run列表在切割前取得, 切割产生的run不在列表中, 图片所在run的下标不变
+            List<XWPFRun> runs = paragraph.getRuns();
+            dealDocxParagraph(paragraph, hits[i]);
+            for (; image < images.size() && images.get(image).paragraph == i; image++) {
+                hitCount += dealImageRun(runs.get(images.get(image).run), images.get(image).text);
+            }
         }
-
+        recordPhase(DocxPhase.APPLY, begin);
+        metrics.increment(DocxCounter.IMAGES, images.size());
+        metrics.increment(DocxCounter.PARAGRAPHS, i);
+        metrics.increment(DocxCounter.RUNS, runCount);
+        metrics.increment(DocxCounter.HITS, hitCount);
+        metrics.increment(DocxCounter.SPLITS, splitCount);
+        metrics.increment(DocxCounter.COMMENTS_REMOVED, clearCommentIds.size());
+        metrics.increment(DocxCounter.COMMENTS_ADDED, docxComments.getNewCommentCount());
         return document;
     }
 
     /**
-     * 对当前段落进行批注
-     * 前提: 正文内容不会发生增或减
-     * 原理: 1.先记录段落每个字符的索引所对应的run, 记录每个run所包含的字符索引, 记录每个run的索引
-     * 2.然后获取不合法词汇的首尾字符在段落中的索引, 在此索引位置分割run , 刷新上一步的每个集合, 并保存run的标签前所设置的批注的开始和结束范围标签
-     * 3.最后统一处理在对应的run中设置范围标签和批注引用
+     * 对文档增加指定批注, 并将处理后的文档直接写入输出流, 输出流不会被关闭。
+     * 以 {@link #open(Path, CompiledDictionary, DocxMetrics)} 打开的文档只重写xml部件, 图片等部件从源文件原样复制, 见 {@link DocxPackageWriter};
+     * 读入内存的文档完整写出, 与源文件无关, 写出后文档不能再使用
      *
-     * @param paragraph 当前段落
+     * @param output 处理后的文档的输出流
+     * @return 新增的批注数量
+     * @throws IOException 写出异常
      */
-    private void dealDocxParagraph(XWPFParagraph paragraph) {
-        // 当前段落每个字符索引索对应的run集合
-        Map<Integer, XWPFRun> charRunMap = new HashMap<>((int) (paragraph.getText().length() / 0.75));
-        // 当前段落每个run所包含的文字的全部索引, 索引集正序
-        Map<XWPFRun, List<Integer>> runCharMap = new HashMap<>((int) (paragraph.getRuns().size() / 0.75));
-        // 当前段落每个run所属段落的索引
-        Map<XWPFRun, Integer> runMap = new HashMap<>((int) (paragraph.getRuns().size() / 0.75));
-
-        // 批注标签的范围标签集合
-        Map<XWPFRun, List<BigInteger>> commentRangeStartMap = new HashMap<>(16);
-        Map<XWPFRun, List<BigInteger>> commentRangeEndMap = new HashMap<>(16);
-
-        // 处理原始段落所有run的数据
-        String paragraphText = dealAllSourceRunData(paragraph, charRunMap, runCharMap, runMap);
-        // 智检
-        Map<String, List<Integer>> matchList = acMatchUtils.match(paragraphText);
-
-        for (Map.Entry<String, List<Integer>> entry : matchList.entrySet()) {
-            String word = entry.getKey();
-            for (Integer startIndex : entry.getValue()) {
-                // 创建当前不合法词的批注
-                BigInteger commentId = docxComments.createComment(addCommentMap.get(word));
-
-                // -------------处理批注范围的开始标签-------------
-                // 当前索引所属字符所属的run
-                XWPFRun run = charRunMap.get(startIndex);
-                // 当前run的文本字符原始索引集
-                List<Integer> indexList = runCharMap.get(run);
-                if (Objects.equals(startIndex, indexList.get(0))) {
-                    // 新增当前敏感词批注范围的开始标签
-                    addCommentIdToMap(commentRangeStartMap, commentId, run);
-                } else {
-                    XWPFRun newRun = splitRunOnIndex(paragraph, charRunMap, runCharMap, runMap, startIndex, run, indexList);
-                    // 新增当前敏感词批注范围的开始标签
-                    addCommentIdToMap(commentRangeStartMap, commentId, newRun);
-                }
-
-                // -------------处理批注范围的结束标签-------------
-                // 当前批注文字的结束字符所在段落文本的索引
-                int endIndex = startIndex + word.length() - 1;
-                if (endIndex == paragraphText.length() - 1) {
-                    paragraph.createRun();
-                }
-                XWPFRun endRun = charRunMap.get(endIndex);
-                // 当前run的文本字符原始索引集
-                indexList = runCharMap.get(endRun);
-                if (!Objects.equals(endIndex, indexList.get(indexList.size() - 1))) {
-                    // 在结束字符的下一个字符索引位置切割
-                    splitRunOnIndex(paragraph, charRunMap, runCharMap, runMap, endIndex + 1, endRun, indexList);
-                } else {
-                    // 当前位置是旧的run的文本的结束位置, 如果旧的run有结束标签, 则调整结束标签的位置
-                    if (commentRangeEndMap.containsKey(run)) {
-                        for (int i = 0; i < commentRangeEndMap.get(run).size(); i++) {
-                            addCommentIdToMap(commentRangeEndMap, commentRangeEndMap.get(run).get(i), endRun);
-                            commentRangeEndMap.get(run).remove(i);
-                        }
-                    }
-                }
-                // 新增当前敏感词批注范围的结束标签
-                addCommentIdToMap(commentRangeEndMap, commentId, endRun);
-            }
+    public int execute(OutputStream output) throws IOException {
+        execute();
+        long begin = System.nanoTime();
+        if (source != null) {
+            DocxPackageWriter.write(document, source, output);
+        } else {
+            document.write(output);
         }
+        recordPhase(DocxPhase.WRITE, begin);
+        return docxComments.getNewCommentCount();
+    }
 
-        // 开始统一处理批注的范围标签, 若在新增批注的遍历中同时新增范围标签, 可能会因为拆分run并在指定位置插入新run的时候导致范围标签位置错误
-        addCommentLabel(commentRangeStartMap, true);
-        addCommentLabel(commentRangeEndMap, false);
+    /**
+     * 在指定线程池中异步执行 {@link #execute(OutputStream)}, 同一个文档对象不能同时执行多次
+     *
+     * @param output   处理后的文档的输出流, 不会被关闭
+     * @param executor 执行处理的线程池
+     * @return 新增的批注数量, 处理异常时以 {@link java.util.concurrent.CompletionException} 包装原异常
+     */
+    public CompletableFuture<Integer> executeAsync(OutputStream output, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(output);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
     }
 
+    /**
+     * 关闭文档, 释放源文件, 不保存任何修改; 整个读入内存的文档只释放内存
+     */
+    @Override
+    public void close() {
+        document.getPackage().revert();
+    }
 
     /**
-     * 对段落中的原始run进行处理 , 并设置图片的批注
+     * 记录阶段耗时
      *
-     * @return 当前段落的文本
+     * @return 当前时间, 作为下一阶段的开始时间
      */
-    private String dealAllSourceRunData(XWPFParagraph paragraph, Map<Integer, XWPFRun> charRunMap,
-                                        Map<XWPFRun, List<Integer>> runCharMap,
-                                        Map<XWPFRun, Integer> runMap) {
-
-        // 获取删除的批注内容
-        List<BigInteger> clearCommentIdList = docxComments.getClearCommentIdList();
-        // 过滤器, 用于删除对应批注的标签
-        Predicate<CTMarkup> p = ctMarkup -> clearCommentIdList.contains(ctMarkup.getId());
-        // 段落文本
-        StringBuilder paragraphText = new StringBuilder(64);
+    private long recordPhase(DocxPhase phase, long begin) {
+        long now = System.nanoTime();
+        metrics.recordPhase(phase, now - begin);
+        return now;
+    }
 
-        // 当前段落文本长度
-        int length = 0;
-        for (int i = 0; i < paragraph.getRuns().size(); i++) {
-            XWPFRun run = paragraph.getRuns().get(i);
-            if (!CollectionUtils.isEmpty(run.getCTR().getDelTextList())) {
-                // 如果启用了审阅(修订)并且这是一次已删除的run，则不包括此run
-                continue;
+    /**
+     * 匹配全部段落的敏感词, 设置了匹配线程池且文本较多时在该线程池中并行匹配
+     *
+     * @return 按文档顺序每个段落的命中结果, 没有命中的段落为null
+     */
+    private AcHitBuffer[] matchParagraphs() {
+        // XMLBeans对象不能并行读取, 文本在当前线程提取
+        List<String> texts = new ArrayList<>();
+        // 重复执行时重新收集图片, 不重复批注
+        images.clear();
+        long totalLength = 0;
+        for (Iterator<XWPFParagraph> paragraphs = new DocxParagraphIterator(document); paragraphs.hasNext(); ) {
+            XWPFParagraph paragraph = paragraphs.next();
+            if (imageTextStage != null) {
+                // 图片在提取线程池中提取文本, 与下面的文本匹配并行
+                submitImages(paragraph, texts.size());
             }
-            // WPS在线编辑生成的docx文档, 因在线WPS在线编辑插入的内容和其它内容不在同一级 , 每个run都遍历并清一遍父节点下的所有批注范围标签
-            DocxHelper.clearRunCommentStartAndEndXml(run, clearCommentIdList);
-            runMap.put(run, i);
-            // 删除需要删除的批注的引用
-            run.getCTR().getCommentReferenceList().removeIf(p);
-            String text = run.text();
-            if (!StringUtils.isEmpty(text)) {
-                paragraphText.append(text);
-                // 处理段落每个字符索引所对应的run
-                for (int ch = 0; ch < text.length(); ch++) {
-                    int index = ch + length;
-                    charRunMap.put(index, run);
-                    if (runCharMap.containsKey(run)) {
-                        List<Integer> indexList = runCharMap.get(run);
-                        indexList.add(index);
-                    } else {
-                        List<Integer> indexList = new ArrayList<>();
-                        indexList.add(index);
-                        runCharMap.put(run, indexList);
-                    }
-                }
-
-                length += text.length();
+            String text = getParagraphText(paragraph);
+            texts.add(text);
+            totalLength += text.length();
+        }
+        AcHitBuffer[] hits = new AcHitBuffer[texts.size()];
+        AcMatchUtils matcher = dictionary.getMatcher();
+        if (matchPool == null || totalLength < PARALLEL_MATCH_THRESHOLD) {
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] = matchParagraph(matcher, texts.get(i), hitBuffer);
             }
-
-            //TODO 图片内容提取并检测批注
-            // 获取run中的图片id , 从而获取图片 , 并通过ocr 获取图片内容 , 然后匹配标记内容 , 新增批注,  在当前run前后增加范围标签和引用标签
-            /*List<String> imageInRunList = DocxUtils.getImageInRun(run);
-            for (String blipId : imageInRunList) {
-                XWPFPictureData pictureData = paragraph.getDocument().getPictureDataByID(blipId);
-                byte[] data = pictureData.getData();
-                File imageFile = new File(fileDirectory + File.separator + UUID.randomUUID() + ".jpg");
-            }*/
+            return hits;
         }
-
-        return paragraphText.toString();
+        ThreadLocal<AcHitBuffer> buffers = ThreadLocal.withInitial(AcHitBuffer::new);
+        // 在ForkJoinPool中提交的并行流使用该线程池执行, 不使用公共线程池
+        matchPool.submit(() -> IntStream.range(0, hits.length).parallel()
+                .forEach(i -> hits[i] = matchParagraph(matcher, texts.get(i), buffers.get()))).join();
+        return hits;
     }
 
     /**
-     * 保存指定run的批注id
+     * 提交段落中的图片, 图片数据在当前线程读取
+     *
+     * @param paragraph      段落
+     * @param paragraphIndex 段落按文档顺序的下标
      */
-    public void addCommentIdToMap(Map<XWPFRun, List<BigInteger>> commentRangeMap, BigInteger commentId, XWPFRun run) {
-        if (commentRangeMap.containsKey(run)) {
-            commentRangeMap.get(run).add(commentId);
-        } else {
-            List<BigInteger> commentRangeList = new ArrayList<>();
-            commentRangeList.add(commentId);
-            commentRangeMap.put(run, commentRangeList);
+    private void submitImages(XWPFParagraph paragraph, int paragraphIndex) {
+        List<XWPFRun> runs = paragraph.getRuns();
+        for (int r = 0; r < runs.size(); r++) {
+            CTR ctr = runs.get(r).getCTR();
+            if (ctr.sizeOfDrawingArray() == 0 || !CollectionUtils.isEmpty(ctr.getDelTextList())) {
+                continue;
+            }
+            for (String blipId : DocxHelper.getImageInRun(runs.get(r))) {
+                POIXMLDocumentPart part = paragraph.getPart().getRelationById(blipId);
+                if (part instanceof XWPFPictureData) {
+                    XWPFPictureData picture = (XWPFPictureData) part;
+                    CompletableFuture<String> text = imageTextStage.extract(picture.getData(),
+                            picture.getPackagePart().getContentType());
+                    images.add(new ImageRun(paragraphIndex, r, text));
+                }
+            }
         }
     }
 
     /**
-     * 在指定索引位置切割run
+     * 匹配图片文本的敏感词, 每个命中的敏感词创建一个批注, 范围为图片所在的run
      *
-     * @param index 所切割字符所在当前段落文本的索引位置, 在字符的左边切割
-     */
-    public XWPFRun splitRunOnIndex(XWPFParagraph paragraph, Map<Integer, XWPFRun> charRunMap, Map<XWPFRun, List<Integer>> runCharMap,
-                                   Map<XWPFRun, Integer> runMap, Integer index, XWPFRun run, List<Integer> indexList) {
-        // 当前需要处理的段落字符所属的run的字符的所在run文本的索引
-        int runTextIndex = 0;
-        // 新的原始run的文本字符索引集
-        List<Integer> newSourceIndexList = new ArrayList<>();
-        // 新的原始run的文本字符索引集
-        List<Integer> newRunIndexList = new ArrayList<>();
-        // 获取当前不合法词汇字符索引所在run文本的位置
-        for (int i = 0; i < indexList.size(); i++) {
-            Integer textCharIndex = indexList.get(i);
-            if (textCharIndex.compareTo(index) < 0) {
-                newSourceIndexList.add(textCharIndex);
+     * @return 命中的敏感词数量
+     */
+    private int dealImageRun(XWPFRun run, CompletableFuture<String> text) {
+        String imageText;
+        try {
+            imageText = text.join();
+        } catch (CompletionException | CancellationException e) {
+            log.warn("图片文本提取失败, 不批注该图片", e);
+            return 0;
+        }
+        if (imageText.isEmpty()) {
+            return 0;
+        }
+        dictionary.getMatcher().match(imageText, hitBuffer);
+        int count = 0;
+        for (int hit = 0; hit < hitBuffer.size(); hit++) {
+            int patternId = hitBuffer.getPatternId(hit);
+            if (isRepeated(hitBuffer, hit, patternId)) {
                 continue;
             }
-            if (Objects.equals(textCharIndex, index)) {
-                runTextIndex = i;
+            count++;
+            BigInteger commentId = BigInteger.valueOf(docxComments.createComment(dictionary.getComment(patternId)));
+            // 开始标签依次插入在run之前, 结束标签依次插入在run之后, 多个批注的范围正确嵌套
+            DocxHelper.insertCommentRangeToRun(run, true, commentId);
+            DocxHelper.insertCommentRangeToRun(run, false, commentId);
+            run.getCTR().addNewCommentReference().setId(commentId);
+        }
+        return count;
+    }
+
+    /**
+     * 同一图片中重复命中的敏感词只批注一次
+     */
+    private static boolean isRepeated(AcHitBuffer hits, int hit, int patternId) {
+        for (int i = 0; i < hit; i++) {
+            if (hits.getPatternId(i) == patternId) {
+                return true;
             }
-            newRunIndexList.add(textCharIndex);
         }
+        return false;
+    }
 
-        String runText = run.text();
-        String sourceRunText = runText.substring(0, runTextIndex);
-        // pos 为run中的非修订删除的文本标签集合的索引 , 此时无法找到<w:delText>(修订的文本)标签的内容
-        run.setText(sourceRunText, 0);
+    /**
+     * 匹配段落的敏感词, 缓存中的命中结果在批注时只读取, 直接使用不复制
+     */
+    private AcHitBuffer matchParagraph(AcMatchUtils matcher, String text, AcHitBuffer buffer) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        AcHitBuffer hits = matchCache == null ? matcher.match(text, buffer) : matchCache.match(dictionary, text, buffer);
+        if (hits.size() == 0) {
+            return null;
+        }
+        return hits == buffer ? buffer.copy() : hits;
+    }
 
-        String newRunText = runText.substring(runTextIndex);
+    /**
+     * 对当前段落进行批注
+     * 前提: 正文内容不会发生增或减
+     * 原理: 1.先记录段落中有文本的run在段落文本中的开始位置, 并删除当前作者已有批注的标签
+     * 2.按命中顺序创建批注, 获取全部敏感词首尾字符在段落中的位置作为切割点
+     * 3.从左到右处理切割点, 通过二分查找获取切割点所在的run, 在切割点处将run切割为多个run(新run紧跟在原run之后, 复制原run的样式),
+     * 并在敏感词的首个run前设置批注的开始范围标签, 在最后一个run后设置结束范围标签和批注引用,
+     * 没有切割点的run不处理
+     * <p>
+     * 切割产生的run直接插入到xml中, 段落的 {@link XWPFParagraph#getRuns()} 不包含这些run
+     *
+     * @param paragraph 当前段落
+     * @param hits      当前段落的命中结果, 没有命中时为null
+     */
+    private void dealDocxParagraph(XWPFParagraph paragraph, AcHitBuffer hits) {
+        // 处理原始段落所有run的数据
+        dealAllSourceRunData(paragraph);
+        runCount += runIndex.size();
+        if (hits == null) {
+            return;
+        }
 
-        int newRunIndex = runMap.get(run) + 1;
-        // 在旧run的索引之后新增一个run, 保存切割后的新文本
-        XWPFRun newRun;
-        if (newRunIndex == runMap.size()) {
-            // 要指定新增的索引位置已超出段落以后的run的索引( 旧的run已是当前段落的最后一个run )
-            newRun = paragraph.createRun();
-        } else {
-            // 指定位置插入新的run
-            int rSize = Optional.ofNullable(paragraph)
-                    .map(XWPFParagraph::getCTP)
-                    .map(CTP::getRList)
-                    .map(List::size)
-                    .orElse(0);
-            if (rSize <= newRunIndex) {
-                for (int i = 0; i <= newRunIndex - rSize; i++) {
-                    paragraph.getCTP().addNewR();
-                }
-            }
-            newRun = paragraph.insertNewRun(newRunIndex);
+        int hitCount = hits.size();
+        if (cuts.length < hitCount * 2) {
+            cuts = new int[hitCount * 4];
+            startOrder = new long[hitCount * 2];
+            commentIds = new long[hitCount * 2];
         }
-        newRun.setText(newRunText);
-        DocxHelper.copyStyle(run, newRun);
-        // 更新字符索引集
-        for (int i = sourceRunText.length(); i > 0; i--) {
-            charRunMap.put(index - i, run);
+        // 创建不合法词的批注
+        for (int hit = 0; hit < hitCount; hit++) {
+            commentIds[hit] = docxComments.createComment(dictionary.getComment(hits.getPatternId(hit)));
+            cuts[hit * 2] = hits.getStart(hit);
+            cuts[hit * 2 + 1] = hits.getEnd(hit);
+            // 按开始位置排序, 同一开始位置的命中按结束位置升序保存, 下标大的范围大, 先开始
+            startOrder[hit] = (long) hits.getStart(hit) << 32 | (Integer.MAX_VALUE - hit);
         }
-        for (int i = 0; i < newRunText.length(); i++) {
-            charRunMap.put(index + i, newRun);
+        int cutCount = hitCount * 2;
+        Arrays.sort(cuts, 0, cutCount);
+        Arrays.sort(startOrder, 0, hitCount);
+
+        int nextStart = 0;
+        int nextEnd = 0;
+        int cut = 0;
+        // 已处理的最后一个run
+        int lastRun = -1;
+        for (int c = 0; c < cutCount; c++) {
+            // 切割点左边的字符所在的run(批注结束), 右边的字符所在的run(批注开始或切割)
+            int left = cuts[c] > 0 ? runIndex.indexOf(cuts[c] - 1) : -1;
+            int right = cuts[c] < runIndex.getEnd(runIndex.size() - 1) ? runIndex.indexOf(cuts[c]) : -1;
+            for (int side = 0; side < 2; side++) {
+                int i = side == 0 ? left : right;
+                if (i <= lastRun) {
+                    continue;
+                }
+                lastRun = i;
+                int runStart = runIndex.getStart(i);
+                int runEnd = runIndex.getEnd(i);
+                String runText = runIndex.getText(i);
+                XWPFRun run = runIndex.getRun(i);
+                XWPFRun piece = run;
+                int pieceStart = runStart;
+                while (true) {
+                    while (cut < cutCount && cuts[cut] <= pieceStart) {
+                        cut++;
+                    }
+                    int pieceEnd = cut < cutCount && cuts[cut] < runEnd ? cuts[cut] : runEnd;
+                    // -------------在切割点切割run, 新run紧跟当前run-------------
+                    XWPFRun next = null;
+                    if (pieceEnd < runEnd) {
+                        next = DocxHelper.insertNewRunAfter(piece, paragraph);
+                        splitCount++;
+                        DocxHelper.copyStyle(run, next);
+                    }
+                    if (piece != run || next != null) {
+                        DocxHelper.setRunText(piece, runText.substring(pieceStart - runStart, pieceEnd - runStart));
+                    }
+                    // -------------设置批注的范围标签和引用, 结束标签在当前run和新run之间-------------
+                    while (nextStart < hitCount && (int) (startOrder[nextStart] >>> 32) == pieceStart) {
+                        int hit = Integer.MAX_VALUE - (int) startOrder[nextStart++];
+                        DocxHelper.insertCommentRangeToRun(piece, true, BigInteger.valueOf(commentIds[hit]));
+                    }
+                    while (nextEnd < hitCount && hits.getEnd(nextEnd) == pieceEnd) {
+                        BigInteger commentId = BigInteger.valueOf(commentIds[nextEnd++]);
+                        DocxHelper.insertCommentRangeToRun(piece, false, commentId);
+                        // 结束标签设置批注引用
+                        piece.getCTR().addNewCommentReference().setId(commentId);
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    piece = next;
+                    pieceStart = pieceEnd;
+                }
+            }
         }
-        // 更新run的索引集
-        runCharMap.put(run, newSourceIndexList);
-        runCharMap.put(newRun, newRunIndexList);
-        // 更新段落的run的索引
-        for (Map.Entry<XWPFRun, Integer> entry : runMap.entrySet()) {
-            Integer value = entry.getValue();
-            XWPFRun key = entry.getKey();
-            if (value.compareTo(runMap.get(run)) > 0) {
-                runMap.put(key, value + 1);
+    }
+
+
+    /**
+     * 获取段落的文本, 与 {@link #dealAllSourceRunData} 获取的文本相同
+     */
+    private static String getParagraphText(XWPFParagraph paragraph) {
+        StringBuilder paragraphText = new StringBuilder(64);
+        for (XWPFRun run : paragraph.getRuns()) {
+            if (CollectionUtils.isEmpty(run.getCTR().getDelTextList())) {
+                paragraphText.append(run.text());
             }
         }
-        runMap.put(newRun, runMap.get(run) + 1);
-        return newRun;
+        return paragraphText.toString();
     }
 
     /**
-     * 在指定的run中, 添加docx批注的范围标签
+     * 对段落中的原始run进行处理, 已删除批注的标签已在 {@link #execute()} 中删除, 有文本的run记录到 {@link #runIndex};
+     * 图片的批注见 {@link #dealImageRun}
      */
-    public void addCommentLabel(Map<XWPFRun, List<BigInteger>> commentRangeStartMap, boolean start) {
-        for (Map.Entry<XWPFRun, List<BigInteger>> entry : commentRangeStartMap.entrySet()) {
-            for (BigInteger commentId : entry.getValue()) {
-                XWPFRun run = entry.getKey();
-                DocxHelper.insertCommentRangeToRun(run, start, commentId);
-                if (!start) {
-                    // 结束标签设置批注引用
-                    CTMarkup ctMarkup = run.getCTR().addNewCommentReference();
-                    ctMarkup.setId(commentId);
-                }
+    private void dealAllSourceRunData(XWPFParagraph paragraph) {
+        runIndex.clear();
+        for (XWPFRun run : paragraph.getRuns()) {
+            if (!CollectionUtils.isEmpty(run.getCTR().getDelTextList())) {
+                // 如果启用了审阅(修订)并且这是一次已删除的run，则不包括此run
+                continue;
+            }
+            String text = run.text();
+            if (!StringUtils.isEmpty(text)) {
+                runIndex.add(run, text);
             }
         }
     }
+
+    /**
+     * 已提交提取的图片: 段落按文档顺序的下标, 图片所在run在 {@link XWPFParagraph#getRuns()} 中的下标, 图片的文本
+     */
+    private static final class ImageRun {
+        private final int paragraph;
+        private final int run;
+        private final CompletableFuture<String> text;
+
+        private ImageRun(int paragraph, int run, CompletableFuture<String> text) {
+            this.paragraph = paragraph;
+            this.run = run;
+            this.text = text;
+        }
+    }
 }
@@ -0,0 +1,214 @@
+package com.scq.poi;
+
+import org.apache.poi.xwpf.usermodel.*;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+
+import javax.xml.namespace.QName;
+import java.util.*;
+
+/**
+ * 按文档顺序遍历docx文档中全部包含文本的段落的迭代器, 遍历时才读取下一个段落, 不创建段落集合
+ * <p>
+ * 遍历的部件: 正文、页眉、页脚、脚注、尾注;
+ * 遍历的内容: 段落、表格(包括嵌套表格)、内容控件、文本框, 文本框中的段落紧跟在其所在的段落之后,
+ * 文本框的兼容内容(mc:Fallback)与首选内容相同, 不重复遍历。
+ * <p>
+ * 段落对象在遍历时按xml创建, 与文档的 {@link XWPFDocument#getParagraphs()} 不是同一个对象, 对同一个文档遍历多次得到的段落顺序相同。
+ *
+ * @author by suchangqin
+ * @date 2023/9/4 10:15
+ */
+public final class DocxParagraphIterator implements Iterator<XWPFParagraph> {
+
+    private static final String W_NS = CTP.type.getName().getNamespaceURI();
+    private static final String MC_NS = "http://schemas.openxmlformats.org/markup-compatibility/2006";
+    private static final String TEXT_BOX_PATH = "declare namespace w='" + W_NS + "' $this//w:txbxContent";
+    /**
+     * 需要进入遍历其子节点的标签: 表格、行、单元格、内容控件、自定义xml
+     */
+    private static final Set<String> CONTAINERS = new HashSet<>(Arrays.asList(
+            "tbl", "tr", "tc", "sdt", "sdtContent", "customXml"));
+    private static final String PARAGRAPH = "p";
+
+    private final Iterator<IBody> parts;
+    /**
+     * 正在遍历的节点, 栈顶为最内层
+     */
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    /**
+     * 上一个返回的段落, 其中的文本框在下一次遍历时才查找
+     */
+    private XWPFParagraph last;
+    private boolean lastInTextBox;
+    private XWPFParagraph next;
+
+    public DocxParagraphIterator(XWPFDocument document) {
+        this.parts = getTextParts(document);
+    }
+
+    /**
+     * 文档中包含文本的部件: 正文、页眉、页脚、脚注、尾注
+     */
+    public static Iterator<IBody> getTextParts(XWPFDocument document) {
+        List<Iterator<? extends IBody>> groups = Arrays.asList(
+                Collections.singletonList(document).iterator(),
+                document.getHeaderList().iterator(),
+                document.getFooterList().iterator(),
+                document.getFootnotes().iterator(),
+                document.getEndnotes().iterator());
+        return new Iterator<IBody>() {
+            private int group;
+
+            @Override
+            public boolean hasNext() {
+                while (group < groups.size() && !groups.get(group).hasNext()) {
+                    group++;
+                }
+                return group < groups.size();
+            }
+
+            @Override
+            public IBody next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return groups.get(group).next();
+            }
+        };
+    }
+
+    /**
+     * 部件的根节点
+     */
+    public static XmlObject getContainer(IBody part) {
+        if (part instanceof XWPFDocument) {
+            return ((XWPFDocument) part).getDocument().getBody();
+        }
+        if (part instanceof XWPFHeaderFooter) {
+            return ((XWPFHeaderFooter) part)._getHdrFtr();
+        }
+        if (part instanceof XWPFAbstractFootnote) {
+            return ((XWPFAbstractFootnote) part).getCTFtnEdn();
+        }
+        throw new IllegalArgumentException("不支持的部件: " + part.getClass().getName());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = findNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public XWPFParagraph next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        XWPFParagraph paragraph = next;
+        next = null;
+        return paragraph;
+    }
+
+    private XWPFParagraph findNext() {
+        if (last != null && !lastInTextBox) {
+            // 文本框中的段落及其嵌套的文本框都由最外层段落查找, 文本框中的段落不再查找
+            XmlCursor cursor = last.getCTP().newCursor();
+            cursor.selectPath(TEXT_BOX_PATH);
+            stack.push(new Frame(cursor, last.getBody(), true, true));
+        }
+        last = null;
+        while (true) {
+            if (stack.isEmpty()) {
+                if (!parts.hasNext()) {
+                    return null;
+                }
+                IBody part = parts.next();
+                stack.push(new Frame(getContainer(part).newCursor(), part, false, false));
+            }
+            Frame frame = stack.peek();
+            if (!frame.advance()) {
+                stack.pop().cursor.dispose();
+                continue;
+            }
+            XmlCursor cursor = frame.cursor;
+            if (frame.selection) {
+                if (!isFallback(cursor)) {
+                    stack.push(new Frame(cursor.newCursor(), frame.body, true, false));
+                }
+                continue;
+            }
+            QName name = cursor.getName();
+            if (name == null || !W_NS.equals(name.getNamespaceURI())) {
+                continue;
+            }
+            if (PARAGRAPH.equals(name.getLocalPart())) {
+                last = new XWPFParagraph((CTP) cursor.getObject(), frame.body);
+                lastInTextBox = frame.inTextBox;
+                return last;
+            }
+            if (CONTAINERS.contains(name.getLocalPart())) {
+                stack.push(new Frame(cursor.newCursor(), frame.body, frame.inTextBox, false));
+            }
+        }
+    }
+
+    /**
+     * 文本框是否在兼容内容中
+     */
+    private static boolean isFallback(XmlCursor cursor) {
+        XmlCursor parent = cursor.newCursor();
+        try {
+            while (parent.toParent()) {
+                QName name = parent.getName();
+                if (name == null) {
+                    return false;
+                }
+                if (MC_NS.equals(name.getNamespaceURI()) && "Fallback".equals(name.getLocalPart())) {
+                    return true;
+                }
+                if (W_NS.equals(name.getNamespaceURI()) && PARAGRAPH.equals(name.getLocalPart())) {
+                    return false;
+                }
+            }
+            return false;
+        } finally {
+            parent.dispose();
+        }
+    }
+
+    /**
+     * 正在遍历子节点的节点, 或查找到的文本框集合
+     */
+    private static final class Frame {
+        private final XmlCursor cursor;
+        private final IBody body;
+        private final boolean inTextBox;
+        private final boolean selection;
+        private boolean started;
+
+        private Frame(XmlCursor cursor, IBody body, boolean inTextBox, boolean selection) {
+            this.cursor = cursor;
+            this.body = body;
+            this.inTextBox = inTextBox;
+            this.selection = selection;
+        }
+
+        /**
+         * 移动到下一个子节点或下一个查找结果
+         */
+        private boolean advance() {
+            if (selection) {
+                return cursor.toNextSelection();
+            }
+            if (!started) {
+                started = true;
+                return cursor.toFirstChild();
+            }
+            return cursor.toNextSibling();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.scq.poi;
+
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+
+import java.util.Arrays;
+
+/**
+ * 段落中有文本的run的索引: 按顺序保存run、run的文本和run在段落文本中的开始位置,
+ * 通过二分查找获取某个字符所在的run, 处理多个段落时复用数组
+ *
+ * @author by suchangqin
+ * @date 2023/9/1 10:30
+ */
+final class RunIndex {
+
+    private XWPFRun[] runs = new XWPFRun[16];
+    private String[] texts = new String[16];
+    /**
+     * starts[i] 为第i个run的文本在段落文本中的开始位置, starts[size] 为段落文本长度
+     */
+    private int[] starts = new int[17];
+    private int size;
+
+    /**
+     * 清空索引, 保留已分配的数组
+     */
+    void clear() {
+        Arrays.fill(runs, 0, size, null);
+        Arrays.fill(texts, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * 追加一个run, 文本不能为空
+     */
+    void add(XWPFRun run, String text) {
+        if (size == runs.length) {
+            runs = Arrays.copyOf(runs, size * 2);
+            texts = Arrays.copyOf(texts, size * 2);
+            starts = Arrays.copyOf(starts, size * 2 + 1);
+        }
+        runs[size] = run;
+        texts[size] = text;
+        starts[size + 1] = starts[size] + text.length();
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    XWPFRun getRun(int i) {
+        return runs[i];
+    }
+
+    String getText(int i) {
+        return texts[i];
+    }
+
+    /**
+     * 第i个run的文本在段落文本中的开始位置(包含)
+     */
+    int getStart(int i) {
+        return starts[i];
+    }
+
+    /**
+     * 第i个run的文本在段落文本中的结束位置(不包含)
+     */
+    int getEnd(int i) {
+        return starts[i + 1];
+    }
+
+    /**
+     * 段落文本中指定位置的字符所在的run
+     *
+     * @param charIndex 字符在段落文本中的位置, 0 &lt;= charIndex &lt; 段落文本长度
+     */
+    int indexOf(int charIndex) {
+        int i = Arrays.binarySearch(starts, 0, size, charIndex);
+        return i >= 0 ? i : -i - 2;
+    }
+}
@@ -0,0 +1,86 @@
+package com.scq.poi.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * 可复用的命中结果集, 每次命中按 (start, end, patternId) 连续保存在同一个int数组中,
+ * 调用 {@link #clear()} 后数组保留, 处理多个段落时不会重复分配
+ *
+ * @author by suchangqin
+ * @date 2023/07/26
+ */
+public class AcHitBuffer implements AcHitHandler {
+
+    private static final int FIELDS = 3;
+
+    private int[] data;
+    private int size;
+
+    public AcHitBuffer() {
+        this(16);
+    }
+
+    /**
+     * @param capacity 初始可保存的命中数量
+     */
+    public AcHitBuffer(int capacity) {
+        this.data = new int[Math.max(1, capacity) * FIELDS];
+    }
+
+    @Override
+    public void onHit(int start, int end, int patternId) {
+        int offset = size * FIELDS;
+        if (offset + FIELDS > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[offset] = start;
+        data[offset + 1] = end;
+        data[offset + 2] = patternId;
+        size++;
+    }
+
+    /**
+     * 清空命中结果, 保留已分配的数组
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 复制当前的命中结果, 数组按命中数量分配
+     */
+    public AcHitBuffer copy() {
+        AcHitBuffer copy = new AcHitBuffer(size);
+        System.arraycopy(data, 0, copy.data, 0, size * FIELDS);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * 命中次数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 第i次命中的敏感词在文本中的开始索引(包含)
+     */
+    public int getStart(int i) {
+        return data[i * FIELDS];
+    }
+
+    /**
+     * 第i次命中的敏感词在文本中的结束索引(不包含)
+     */
+    public int getEnd(int i) {
+        return data[i * FIELDS + 1];
+    }
+
+    /**
+     * 第i次命中的敏感词ID
+     */
+    public int getPatternId(int i) {
+        return data[i * FIELDS + 2];
+    }
+}
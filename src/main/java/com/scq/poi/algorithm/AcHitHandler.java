@@ -0,0 +1,20 @@
+package com.scq.poi.algorithm;
+
+/**
+ * AC自动机匹配命中的回调, 每命中一次敏感词调用一次, 参数都是基本类型, 不产生额外对象
+ *
+ * @author by suchangqin
+ * @date 2023/07/26
+ */
+@FunctionalInterface
+public interface AcHitHandler {
+
+    /**
+     * 命中敏感词
+     *
+     * @param start     敏感词在文本中的开始索引(包含)
+     * @param end       敏感词在文本中的结束索引(不包含)
+     * @param patternId 敏感词ID, 即构建 {@link AcTree} 时敏感词在集合中的索引
+     */
+    void onHit(int start, int end, int patternId);
+}
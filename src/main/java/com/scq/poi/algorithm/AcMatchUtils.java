@@ -1,10 +1,10 @@
 package com.scq.poi.algorithm;
 
 
-import lombok.AllArgsConstructor;
 import org.springframework.util.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * AC多模式串匹配敏感词算法执行器
@@ -12,12 +12,28 @@ import java.util.*;
  * @author by suchangqin
  * @date 2023/07/26
  */
-@AllArgsConstructor
 public class AcMatchUtils {
     /**
      * 敏感词集构建的树
      */
     private final AcTree tree;
+    /**
+     * 敏感词命中次数统计, 不统计时为null
+     */
+    private final PatternHitCounter hitCounter;
+
+    public AcMatchUtils(AcTree tree) {
+        this(tree, null);
+    }
+
+    /**
+     * @param tree       敏感词集构建的树
+     * @param hitCounter 敏感词命中次数统计, 每次命中都会累加, 为null时不统计
+     */
+    public AcMatchUtils(AcTree tree, PatternHitCounter hitCounter) {
+        this.tree = tree;
+        this.hitCounter = hitCounter;
+    }
 
     /**
      * 使用AC自动机算法, 将给定的文本过滤掉敏感词, 敏感词将被 "*" 替换
@@ -35,23 +51,16 @@ public class AcMatchUtils {
         //结果集
         char[] result = null;
         //文本匹配的敏感词集
-        AcNode curNode = tree.getRootNode();
-        AcNode childNode;
-        Character c;
+        int curNode = AcTree.ROOT;
         int fromPos = 0;
+        AtomicLongArray counts = hitCounter == null ? null : hitCounter.stripe();
         for (int i = 0; i < words.length; i++) {
-            c = words[i];
-            childNode = curNode.getChildren(c);
-
-            while (childNode == null && curNode != tree.getRootNode()) {
-                curNode = curNode.getFailNode();
-                childNode = curNode.getChildren(c);
-            }
-            if (childNode != null) {
-                curNode = childNode;
-            }
-            if (curNode.isEnd()) {
-                int pos = i - curNode.getLevel() + 1;
+            curNode = tree.next(curNode, words[i]);
+            if (tree.isEnd(curNode)) {
+                if (counts != null) {
+                    counts.getAndIncrement(tree.getPatternId(curNode));
+                }
+                int pos = i - tree.getLevel(curNode) + 1;
                 if (pos < fromPos) {
                     pos = fromPos;
                 }
@@ -72,6 +81,43 @@ public class AcMatchUtils {
     }
 
 
+    /**
+     * 使用AC自动机算法, 匹配敏感词, 每次命中都回调 {@link AcHitHandler#onHit(int, int, int)},
+     * 命中按结束位置顺序回调, 同一结束位置的由长到短, 匹配过程中不分配对象
+     *
+     * @param word    文本
+     * @param handler 命中回调
+     */
+    public void match(CharSequence word, AcHitHandler handler) {
+        int textLength = word.length();
+        int p = AcTree.ROOT;
+        // 命中统计的分段在匹配前获取一次
+        AtomicLongArray counts = hitCounter == null ? null : hitCounter.stripe();
+        for (int i = 0; i < textLength; ++i) {
+            p = tree.next(p, word.charAt(i));
+            for (int tmp = tree.isEnd(p) ? p : tree.getOutputNode(p); tmp != AcTree.NONE; tmp = tree.getOutputNode(tmp)) {
+                int patternId = tree.getPatternId(tmp);
+                if (counts != null) {
+                    counts.getAndIncrement(patternId);
+                }
+                handler.onHit(i - tree.getLevel(tmp) + 1, i + 1, patternId);
+            }
+        }
+    }
+
+    /**
+     * 使用AC自动机算法, 匹配敏感词, 命中结果写入可复用的结果集
+     *
+     * @param word   文本
+     * @param buffer 结果集, 匹配前会先清空
+     * @return 传入的结果集
+     */
+    public AcHitBuffer match(CharSequence word, AcHitBuffer buffer) {
+        buffer.clear();
+        match(word, (AcHitHandler) buffer);
+        return buffer;
+    }
+
     /**
      * 使用AC自动机算法, 匹配敏感词, 并获取命中的敏感词集,
      * 参考实现: <a href="https://blog.csdn.net/Mr_SCX/article/details/104065446">...</a>
@@ -80,45 +126,29 @@ public class AcMatchUtils {
         Map<String, List<Integer>> matchWordMap = new HashMap<>(word.length());
         char[] text = word.toCharArray();
         int textLength = text.length;
-        AcNode rootNode = tree.getRootNode();
-        AcNode p = rootNode;
+        int p = AcTree.ROOT;
         String matchWord;
+        AtomicLongArray counts = hitCounter == null ? null : hitCounter.stripe();
         for (int i = 0; i < textLength; ++i) {
-            char c = text[i];
-            // 判断子节点中是否存在当前字符, 有则继续, 没有则触发失败指针
-            while (p.getChildren(c) == null && p != rootNode) {
-                // 失败指针发挥作用的地方
-                p = p.getFailNode();
-            }
-            // 获取当前字符节点
-            p = p.getChildren(c);
-            // 如果没有匹配的，从root开始重新匹配
-            if (p == null) {
-                p = rootNode;
-            }
-            AcNode tmp = p;
-            // 处理命中的敏感词
-            while (tmp != rootNode) {
-                if (tmp.isEnd()) {
-                    int pos = i - tmp.getLevel() + 1;
-                    // 截取命中的敏感词
-                    if (i == textLength - 1) {
-                        matchWord = word.substring(pos);
-                    } else {
-                        matchWord = word.substring(pos, pos + tmp.getLevel());
-                    }
-
-                    // 命中的敏感词
-                    if (matchWordMap.containsKey(matchWord)) {
-                        matchWordMap.get(matchWord).add(pos);
-                    } else {
-                        List<Integer> list = new ArrayList<>();
-                        list.add(pos);
-                        matchWordMap.put(matchWord, list);
-                    }
+            // 状态转移, 没有匹配的子节点时由失败指针回溯, 编译模式下直接查表
+            p = tree.next(p, text[i]);
+            // 处理命中的敏感词, 只沿输出指针访问敏感词结尾的状态
+            for (int tmp = tree.isEnd(p) ? p : tree.getOutputNode(p); tmp != AcTree.NONE; tmp = tree.getOutputNode(tmp)) {
+                if (counts != null) {
+                    counts.getAndIncrement(tree.getPatternId(tmp));
+                }
+                int level = tree.getLevel(tmp);
+                int pos = i - level + 1;
+                // 截取命中的敏感词
+                matchWord = word.substring(pos, pos + level);
 
+                // 命中的敏感词
+                List<Integer> list = matchWordMap.get(matchWord);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    matchWordMap.put(matchWord, list);
                 }
-                tmp = tmp.getFailNode();
+                list.add(pos);
             }
         }
 
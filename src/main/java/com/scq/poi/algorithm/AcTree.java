@@ -1,111 +1,610 @@
 package com.scq.poi.algorithm;
 
-import lombok.Getter;
-import org.springframework.util.CollectionUtils;
-
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * AC自动机算法树
  * 参考文档:
  *  <a href="https://blog.csdn.net/Mr_SCX/article/details/104065446">...</a>
  * <a href="https://www.iteye.com/blog/buddie-2391496">...</a>
+ * <p>
+ * 节点不再是对象, 而是按广度优先顺序编号的状态(int), 根节点为 {@link #ROOT}。
+ * 由于按广度优先编号, 同一父节点的子节点编号连续, 只需记录每个状态第一个子节点的编号 {@code base},
+ * 子节点的字符 {@code label} 在区间内有序, 查找子节点时直接二分, 匹配过程中没有装箱和HashMap查找。
+ * <p>
+ * 编译模式下会预先计算浅层状态的完整转移表(DFA), 每个字符只需一次查表, 不再沿失败指针回溯;
+ * 同时每个状态都会记录失败指针链上最近的敏感词结尾状态(输出指针), 收集命中时只访问真正的敏感词结尾。
+ * <p>
+ * 所有数组都以 {@link java.nio.Buffer} 保存, 构建的树包装堆内数组, 也可以通过 {@link #readFrom(ByteBuffer)}
+ * 直接使用内存映射文件中的数据, 加载时不做解析和复制。
  *
  * @author by suchangqin
  * @date 2023/7/25 14:11
  */
-@Getter
 public class AcTree {
 
-    private final AcNode rootNode;
+    /**
+     * 根节点状态
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * 没有对应的子节点
+     */
+    public static final int NONE = -1;
+
+    /**
+     * 子节点数量不超过该值时线性查找, 否则二分查找
+     */
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    /**
+     * 编译模式下转移表默认最多占用的int数量(16MB), 按广度优先顺序优先为浅层状态建表
+     */
+    public static final int DEFAULT_DENSE_TABLE_BUDGET = 1 << 22;
+
+    /**
+     * 序列化时的字节序和对齐字节数
+     */
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int ALIGNMENT = 8;
+    private static final int HEADER_INTS = 4;
+    private static final int CHAR_CLASS_SIZE = Character.MAX_VALUE + 1;
+
+    /**
+     * 状态总数
+     */
+    private final int stateCount;
+    /**
+     * 构建时敏感词集合的大小
+     */
+    private final int patternCount;
+    /**
+     * 每个状态自身的字符(即从父节点进入该状态的字符)
+     */
+    private final CharBuffer label;
+    /**
+     * 每个状态的第一个子节点编号, 子节点区间为 [base[s], base[s + 1])
+     */
+    private final IntBuffer base;
+    /**
+     * 失败指针
+     */
+    private final IntBuffer fail;
+    /**
+     * 状态所在层级, 即从根节点到该状态的字符数
+     */
+    private final IntBuffer depth;
+    /**
+     * 以该状态结尾的敏感词ID(即敏感词在构建时集合中的索引), 不是敏感词结尾时为 {@link #NONE}
+     */
+    private final IntBuffer pattern;
+    /**
+     * 输出指针: 失败指针链上最近的敏感词结尾状态(不含自身), 没有时为 {@link #NONE}
+     */
+    private final IntBuffer output;
+
+    /**
+     * 编译模式: 字符到字符类别的映射, 0表示敏感词中未出现的字符; 非编译模式为null
+     */
+    private CharBuffer charClass;
+    /**
+     * 编译模式: 字符类别数量(含类别0)
+     */
+    private int classCount;
+    /**
+     * 编译模式: 拥有完整转移表的状态数量, 即状态 [0, denseStates) 可直接查表
+     */
+    private int denseStates;
+    /**
+     * 编译模式: 完整转移表, 状态s在类别k上的下一状态为 delta[s * classCount + k]
+     */
+    private IntBuffer delta;
 
 
     public AcTree(List<String> wordList) {
-        rootNode = new AcNode();
-        initTree(wordList);
-        buildFailNode();
+        this(wordList, false);
+    }
+
+    /**
+     * @param wordList 敏感词集
+     * @param compiled 是否编译完整转移表, 转移表大小受 {@link #DEFAULT_DENSE_TABLE_BUDGET} 限制
+     */
+    public AcTree(List<String> wordList, boolean compiled) {
+        this(wordList, compiled ? DEFAULT_DENSE_TABLE_BUDGET : 0);
+    }
+
+    /**
+     * @param wordList         敏感词集
+     * @param denseTableBudget 完整转移表最多占用的int数量, 不大于0时不编译
+     */
+    public AcTree(List<String> wordList, int denseTableBudget) {
+        Builder builder = new Builder(wordList);
+        this.patternCount = wordList.size();
+        this.stateCount = builder.size;
+        char[] labels = new char[stateCount];
+        int[] bases = new int[stateCount + 1];
+        int[] fails = new int[stateCount];
+        int[] depths = new int[stateCount];
+        int[] patterns = new int[stateCount];
+        int[] outputs = new int[stateCount];
+        this.label = CharBuffer.wrap(labels);
+        this.base = IntBuffer.wrap(bases);
+        this.fail = IntBuffer.wrap(fails);
+        this.depth = IntBuffer.wrap(depths);
+        this.pattern = IntBuffer.wrap(patterns);
+        this.output = IntBuffer.wrap(outputs);
+        initTree(builder, labels, bases, depths, patterns);
+        buildFailNode(labels, bases, fails);
+        buildOutputNode(fails, patterns, outputs);
+        if (denseTableBudget > 0) {
+            buildDenseTable(denseTableBudget, labels, bases, fails);
+        }
+    }
+
+    /**
+     * 由增量更新后的数组创建, 见 {@link AcTreeUpdater}
+     */
+    AcTree(int patternCount, char[] labels, int[] bases, int[] fails, int[] depths, int[] patterns, int[] outputs,
+           int denseTableBudget) {
+        this.patternCount = patternCount;
+        this.stateCount = labels.length;
+        this.label = CharBuffer.wrap(labels);
+        this.base = IntBuffer.wrap(bases);
+        this.fail = IntBuffer.wrap(fails);
+        this.depth = IntBuffer.wrap(depths);
+        this.pattern = IntBuffer.wrap(patterns);
+        this.output = IntBuffer.wrap(outputs);
+        if (denseTableBudget > 0) {
+            buildDenseTable(denseTableBudget, labels, bases, fails);
+        }
+    }
+
+    /**
+     * 从序列化数据创建, 各数组直接引用传入的缓冲区
+     */
+    private AcTree(ByteBuffer buffer) {
+        IntBuffer header = slice(buffer, HEADER_INTS * Integer.BYTES).asIntBuffer();
+        this.stateCount = header.get(0);
+        this.patternCount = header.get(1);
+        this.classCount = header.get(2);
+        this.denseStates = header.get(3);
+        this.label = slice(buffer, stateCount * Character.BYTES).asCharBuffer();
+        this.base = slice(buffer, (stateCount + 1) * Integer.BYTES).asIntBuffer();
+        this.fail = slice(buffer, stateCount * Integer.BYTES).asIntBuffer();
+        this.depth = slice(buffer, stateCount * Integer.BYTES).asIntBuffer();
+        this.pattern = slice(buffer, stateCount * Integer.BYTES).asIntBuffer();
+        this.output = slice(buffer, stateCount * Integer.BYTES).asIntBuffer();
+        if (classCount > 0) {
+            this.charClass = slice(buffer, CHAR_CLASS_SIZE * Character.BYTES).asCharBuffer();
+            this.delta = slice(buffer, denseStates * classCount * Integer.BYTES).asIntBuffer();
+        }
+    }
+
+    /**
+     * 从序列化数据读取算法树, 数据不会被复制, 传入内存映射的缓冲区时多个进程可共享同一份页缓存
+     *
+     * @param buffer 序列化数据, 从当前位置开始读取, 读取后位置移动到算法树数据之后
+     * @return 算法树
+     */
+    public static AcTree readFrom(ByteBuffer buffer) {
+        return new AcTree(buffer);
+    }
+
+    /**
+     * 序列化后的字节数
+     */
+    public int getSerializedSize() {
+        long size = align(HEADER_INTS * Integer.BYTES)
+                + align(stateCount * Character.BYTES)
+                + align((stateCount + 1) * Integer.BYTES)
+                + 4 * align(stateCount * Integer.BYTES);
+        if (delta != null) {
+            size += align(CHAR_CLASS_SIZE * Character.BYTES) + align(denseStates * classCount * Integer.BYTES);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("AC算法树过大, 无法序列化: " + size);
+        }
+        return (int) size;
+    }
+
+    /**
+     * 算法树占用的内存字节数, 与序列化后的大小一致
+     */
+    public long getSizeInBytes() {
+        return getSerializedSize();
+    }
+
+    /**
+     * 序列化算法树, 格式为固定字节序且每个数组按8字节对齐, 可由 {@link #readFrom(ByteBuffer)} 直接映射使用
+     *
+     * @param buffer 写入的缓冲区, 从当前位置开始写入, 剩余空间至少为 {@link #getSerializedSize()}
+     */
+    public void writeTo(ByteBuffer buffer) {
+        IntBuffer header = slice(buffer, HEADER_INTS * Integer.BYTES).asIntBuffer();
+        header.put(stateCount).put(patternCount).put(delta == null ? 0 : classCount).put(delta == null ? 0 : denseStates);
+        slice(buffer, stateCount * Character.BYTES).asCharBuffer().put(label.duplicate());
+        slice(buffer, (stateCount + 1) * Integer.BYTES).asIntBuffer().put(base.duplicate());
+        slice(buffer, stateCount * Integer.BYTES).asIntBuffer().put(fail.duplicate());
+        slice(buffer, stateCount * Integer.BYTES).asIntBuffer().put(depth.duplicate());
+        slice(buffer, stateCount * Integer.BYTES).asIntBuffer().put(pattern.duplicate());
+        slice(buffer, stateCount * Integer.BYTES).asIntBuffer().put(output.duplicate());
+        if (delta != null) {
+            slice(buffer, CHAR_CLASS_SIZE * Character.BYTES).asCharBuffer().put(charClass.duplicate());
+            slice(buffer, denseStates * classCount * Integer.BYTES).asIntBuffer().put(delta.duplicate());
+        }
     }
 
-    private void initTree(List<String> wordList) {
-        for (String word : wordList) {
-            if (word.isEmpty()) {
-                continue;
+    /**
+     * 从缓冲区当前位置截取指定字节数, 并将位置按对齐后的长度后移
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int bytes) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(bytes);
+        buffer.position(buffer.position() + align(bytes));
+        return slice.order(BYTE_ORDER);
+    }
+
+    private static int align(int bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * 将临时的链表结构的树按广度优先重新编号, 写入紧凑数组
+     */
+    private void initTree(Builder builder, char[] label, int[] base, int[] depth, int[] pattern) {
+        int[] order = new int[stateCount];
+        int head = 0;
+        int tail = 1;
+        order[0] = ROOT;
+        pattern[ROOT] = NONE;
+        while (head < stateCount) {
+            int node = order[head];
+            base[head] = tail;
+            for (int child = builder.firstChild[node]; child != NONE; child = builder.nextSibling[child]) {
+                label[tail] = builder.label[child];
+                depth[tail] = depth[head] + 1;
+                pattern[tail] = builder.pattern[child];
+                order[tail++] = child;
+            }
+            head++;
+        }
+        base[stateCount] = stateCount;
+    }
+
+    /**
+     * 建立失败指针, 状态已是广度优先顺序, 顺序遍历即可保证父节点的失败指针先建立
+     */
+    private void buildFailNode(char[] label, int[] base, int[] fail) {
+        for (int parent = 0; parent < stateCount; parent++) {
+            for (int child = base[parent]; child < base[parent + 1]; child++) {
+                if (parent == ROOT) {
+                    fail[child] = ROOT;
+                    continue;
+                }
+                char c = label[child];
+                int failNode = fail[parent];
+                int next = getChild(failNode, c);
+                while (next == NONE && failNode != ROOT) {
+                    failNode = fail[failNode];
+                    next = getChild(failNode, c);
+                }
+                fail[child] = next == NONE ? ROOT : next;
+            }
+        }
+    }
+
+    /**
+     * 建立输出指针, 失败指针总是指向更浅的状态, 顺序遍历即可
+     */
+    private void buildOutputNode(int[] fail, int[] pattern, int[] output) {
+        output[ROOT] = NONE;
+        for (int state = 1; state < stateCount; state++) {
+            int failNode = fail[state];
+            output[state] = pattern[failNode] != NONE ? failNode : output[failNode];
+        }
+    }
+
+    /**
+     * 为浅层状态建立完整转移表: 先复制失败指针状态的转移行, 再覆盖自身的子节点
+     */
+    private void buildDenseTable(int denseTableBudget, char[] label, int[] base, int[] fail) {
+        char[] classes = new char[CHAR_CLASS_SIZE];
+        int count = 1;
+        for (int state = 1; state < stateCount; state++) {
+            if (classes[label[state]] == 0) {
+                if (count == Character.MAX_VALUE) {
+                    // 类别无法用char表示, 放弃编译
+                    return;
+                }
+                classes[label[state]] = (char) count++;
+            }
+        }
+        int rows = (int) Math.max(1L, Math.min(stateCount, (long) denseTableBudget / count));
+        int[] table = new int[rows * count];
+        for (int state = 0; state < rows; state++) {
+            int row = state * count;
+            if (state != ROOT) {
+                System.arraycopy(table, fail[state] * count, table, row, count);
+            }
+            for (int child = base[state]; child < base[state + 1]; child++) {
+                table[row + classes[label[child]]] = child;
+            }
+        }
+        this.charClass = CharBuffer.wrap(classes);
+        this.classCount = count;
+        this.denseStates = rows;
+        this.delta = IntBuffer.wrap(table);
+    }
+
+    /**
+     * 状态转移: 有子节点则进入子节点, 否则沿失败指针回溯, 都没有则回到根节点;
+     * 编译模式下直接查表, 只有深层状态才会回溯到有转移表的状态
+     *
+     * @param state 当前状态
+     * @param c     下一个字符
+     * @return 下一个状态
+     */
+    public int next(int state, char c) {
+        if (delta != null) {
+            int k = charClass.get(c);
+            if (k == 0) {
+                return ROOT;
             }
-            char[] charArray = word.toLowerCase().toCharArray();
-            buildTreeByWord(charArray);
+            while (state >= denseStates) {
+                int child = getChild(state, c);
+                if (child != NONE) {
+                    return child;
+                }
+                state = fail.get(state);
+            }
+            return delta.get(state * classCount + k);
+        }
+        int child = getChild(state, c);
+        while (child == NONE && state != ROOT) {
+            state = fail.get(state);
+            child = getChild(state, c);
         }
+        return child == NONE ? ROOT : child;
     }
 
-    private void buildTreeByWord(char[] charArray) {
-        AcNode curNode = rootNode;
-        for (char c : charArray) {
-            // 已存在则只移动指针
-            if (curNode.containChildren(c)) {
-                curNode = curNode.getChildren(c);
-                continue;
+    /**
+     * 获取指定字符的子节点
+     *
+     * @return 子节点状态, 没有时返回 {@link #NONE}
+     */
+    public int getChild(int state, char c) {
+        int low = base.get(state);
+        int high = base.get(state + 1) - 1;
+        if (high - low < LINEAR_SCAN_LIMIT) {
+            for (int i = low; i <= high; i++) {
+                if (label.get(i) == c) {
+                    return i;
+                }
             }
-            // 没有则新增
-            AcNode childrenNode = new AcNode();
-            curNode.addChildren(c, childrenNode);
-            curNode = childrenNode;
+            return NONE;
         }
-        // 最后的字符节点如果没有设置过层级
-        if (Objects.isNull(curNode.getLevel())) {
-            curNode.setLevel(charArray.length);
-            curNode.setEnd(true);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = label.get(mid);
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
         }
+        return NONE;
+    }
+
+    public int getFailNode(int state) {
+        return fail.get(state);
     }
 
-    private void buildFailNode() {
-        buildFirstFailNode();
-        buildOtherFailNode();
+    /**
+     * 获取输出指针, 即失败指针链上最近的敏感词结尾状态, 没有时返回 {@link #NONE}
+     */
+    public int getOutputNode(int state) {
+        return output.get(state);
+    }
 
+    public int getLevel(int state) {
+        return depth.get(state);
+    }
+
+    public boolean isEnd(int state) {
+        return pattern.get(state) != NONE;
     }
 
     /**
-     * 建立第一层级的节点的失败指针节点
+     * 获取以该状态结尾的敏感词ID, 即敏感词在构建时集合中的索引;
+     * 转小写后重复的敏感词共用第一个出现的索引
+     *
+     * @return 敏感词ID, 不是敏感词结尾时返回 {@link #NONE}
      */
-    private void buildFirstFailNode() {
-        rootNode.getChildren().forEach((character, acNode) -> acNode.setFailNode(rootNode));
+    public int getPatternId(int state) {
+        return pattern.get(state);
     }
 
     /**
-     * 建立非第一层级的节点的失败指针节点
+     * 构建时敏感词集合的大小, 敏感词ID都小于该值
      */
-    private void buildOtherFailNode() {
-        Queue<AcNode> queue = new LinkedList<>(rootNode.getChildren().values());
-        AcNode node;
-        while (!queue.isEmpty()) {
-            node = queue.remove();
-            buildNodeFailLink(node, queue);
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public boolean isCompiled() {
+        return delta != null;
+    }
+
+    /**
+     * 有效状态的数量: 根节点、敏感词结尾状态及其前缀状态; 增量更新删除敏感词后只取消结尾标记, 其余状态为无效状态。
+     * 子节点的编号都大于父节点, 按编号倒序遍历一次
+     */
+    public int getLiveStateCount() {
+        boolean[] live = new boolean[stateCount];
+        int count = 1;
+        for (int state = stateCount - 1; state > ROOT; state--) {
+            boolean end = isEnd(state);
+            for (int child = getFirstChild(state); !end && child < getFirstChild(state + 1); child++) {
+                end = live[child];
+            }
+            if (end) {
+                live[state] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 增量新增和删除敏感词, 返回新的算法树, 当前算法树不变, 正在进行的匹配不受影响。
+     * 只为新增的状态建立失败指针, 并只重新计算受影响状态的失败指针和输出指针, 不会从敏感词重新构建整棵树;
+     * 删除的敏感词只取消结尾标记, 其前缀状态保留, 不影响匹配结果, 无效状态的数量见 {@link #getLiveStateCount()}。
+     *
+     * @param addedWords   新增的敏感词, 敏感词ID依次为 {@link #getPatternCount()} 加上在集合中的索引;
+     *                     已存在的敏感词会改用新的敏感词ID
+     * @param removedWords 删除的敏感词, 先于新增处理
+     * @return 新的算法树, 编译模式与当前算法树一致
+     */
+    public AcTree update(List<String> addedWords, Collection<String> removedWords) {
+        int[] patternIds = new int[addedWords.size()];
+        for (int i = 0; i < patternIds.length; i++) {
+            patternIds[i] = patternCount + i;
         }
+        return update(addedWords, patternIds, removedWords, patternCount + addedWords.size());
+    }
 
+    /**
+     * 增量新增和删除敏感词, 新增的敏感词使用指定的敏感词ID, 可复用已删除的敏感词的ID, 其它同 {@link #update(List, Collection)}
+     *
+     * @param addedWords   新增的敏感词
+     * @param patternIds   新增的敏感词的ID, 与 addedWords 一一对应
+     * @param removedWords 删除的敏感词, 先于新增处理
+     * @param patternCount 新算法树的敏感词数量, 大于全部敏感词ID
+     * @return 新的算法树, 编译模式与当前算法树一致
+     */
+    public AcTree update(List<String> addedWords, int[] patternIds, Collection<String> removedWords, int patternCount) {
+        return new AcTreeUpdater(this).update(addedWords, patternIds, removedWords, patternCount);
     }
 
     /**
-     * 根据父节点, 建立子节点的失败指针节点
+     * 查找敏感词的ID, 不区分大小写
      *
-     * @param parent 父节点
-     * @param queue  建立失败指针节点任务队列
-     */
-    private void buildNodeFailLink(AcNode parent, Queue<AcNode> queue) {
-        if (CollectionUtils.isEmpty(parent.getChildren())) {
-            return;
-        }
-        queue.addAll(parent.getChildren().values());
-        AcNode parentFailNode = parent.getFailNode();
-        Set<Character> childrenKeys = parent.getChildren().keySet();
-        AcNode failNode;
-        for (Character key : childrenKeys) {
-            failNode = parentFailNode;
-            while (failNode != rootNode && !failNode.containChildren(key)) {
-                failNode = failNode.getFailNode();
+     * @return 敏感词ID, 不存在时返回 {@link #NONE}
+     */
+    public int find(String word) {
+        String lower = word.toLowerCase();
+        int state = ROOT;
+        for (int i = 0; i < lower.length() && state != NONE; i++) {
+            state = getChild(state, lower.charAt(i));
+        }
+        return state == NONE || state == ROOT || !isEnd(state) ? NONE : getPatternId(state);
+    }
+
+    /**
+     * 状态的第一个子节点, 子节点区间为 [getFirstChild(s), getFirstChild(s + 1))
+     */
+    int getFirstChild(int state) {
+        return base.get(state);
+    }
+
+    /**
+     * 状态自身的字符
+     */
+    char getLabel(int state) {
+        return label.get(state);
+    }
+
+    /**
+     * 增量更新时沿用的转移表大小, 非编译模式为0
+     */
+    int getDenseTableBudget() {
+        return delta == null ? 0 : Math.max(DEFAULT_DENSE_TABLE_BUDGET, denseStates * classCount);
+    }
+
+    /**
+     * 构建时使用的临时树, 子节点以单向链表保存, 构建完成即可丢弃
+     */
+    private static final class Builder {
+        private char[] label;
+        private int[] firstChild;
+        private int[] lastChild;
+        private int[] nextSibling;
+        private int[] pattern;
+        private int size;
+
+        private Builder(List<String> wordList) {
+            // 敏感词转小写后按字典序排序, 有序插入时只需比较父节点最后一个子节点即可; 排序稳定, 重复的敏感词保留第一个索引
+            String[] words = new String[wordList.size()];
+            Integer[] order = new Integer[words.length];
+            int capacity = 16;
+            for (int i = 0; i < words.length; i++) {
+                words[i] = wordList.get(i).toLowerCase();
+                order[i] = i;
+                capacity += words[i].length();
+            }
+            Arrays.sort(order, (a, b) -> words[a].compareTo(words[b]));
+
+            label = new char[capacity];
+            firstChild = new int[capacity];
+            lastChild = new int[capacity];
+            nextSibling = new int[capacity];
+            pattern = new int[capacity];
+            newNode('\0');
+            String previous = null;
+            for (Integer patternId : order) {
+                String word = words[patternId];
+                if (word.isEmpty() || word.equals(previous)) {
+                    continue;
+                }
+                buildTreeByWord(word, patternId);
+                previous = word;
             }
-            failNode = failNode.getChildren(key);
-            if (failNode == null) {
-                failNode = rootNode;
+        }
+
+        private void buildTreeByWord(String word, int patternId) {
+            int curNode = ROOT;
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                int last = lastChild[curNode];
+                // 敏感词有序, 已存在的子节点只可能是最后一个子节点, 已存在则只移动指针
+                if (last != NONE && label[last] == c) {
+                    curNode = last;
+                    continue;
+                }
+                // 没有则新增
+                int child = newNode(c);
+                if (last == NONE) {
+                    firstChild[curNode] = child;
+                } else {
+                    nextSibling[last] = child;
+                }
+                lastChild[curNode] = child;
+                curNode = child;
             }
-            parent.getChildren(key).setFailNode(failNode);
+            pattern[curNode] = patternId;
+        }
+
+        private int newNode(char c) {
+            int node = size++;
+            label[node] = c;
+            firstChild[node] = NONE;
+            lastChild[node] = NONE;
+            nextSibling[node] = NONE;
+            pattern[node] = NONE;
+            return node;
         }
     }
 
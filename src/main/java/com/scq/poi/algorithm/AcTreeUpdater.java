@@ -0,0 +1,340 @@
+package com.scq.poi.algorithm;
+
+import java.util.*;
+
+import static com.scq.poi.algorithm.AcTree.NONE;
+import static com.scq.poi.algorithm.AcTree.ROOT;
+
+/**
+ * AC自动机算法树的增量更新, 见 {@link AcTree#update(List, Collection)}
+ * <p>
+ * 新增的状态先以临时编号(从原状态数开始)挂在原有状态下, 再与原有状态合并按广度优先重新编号。
+ * 原有状态的失败指针直接沿用, 只有以新增状态对应的字符串为后缀、且原失败指针更短的状态才需要修改:
+ * 设 g 为新增状态 x 最长的、原本已存在的真后缀状态, 则这些状态的原失败指针一定是 g,
+ * 因此只需检查原失败指针为 g 的状态; 输出指针只为失败指针、结尾标记或输出指针变化的状态重新计算。
+ *
+ * @author by suchangqin
+ * @date 2023/8/29 16:20
+ */
+final class AcTreeUpdater {
+
+    private final AcTree tree;
+    /**
+     * 原有状态数量, 临时编号小于该值的为原有状态
+     */
+    private final int oldStates;
+
+    /**
+     * 新增状态的字符和敏感词ID, 下标为临时编号减去原有状态数量
+     */
+    private char[] addedLabel;
+    private int[] addedPattern;
+    private int addedCount;
+    /**
+     * 新增状态的父节点(临时编号)与其新增的子节点
+     */
+    private final Map<Integer, List<Integer>> addedChildren = new HashMap<>(16);
+    /**
+     * 原有状态的敏感词ID变更
+     */
+    private final Map<Integer, Integer> patternChanges = new HashMap<>(16);
+
+    AcTreeUpdater(AcTree tree) {
+        this.tree = tree;
+        this.oldStates = tree.getStateCount();
+    }
+
+    /**
+     * @param patternIds   新增的敏感词的ID, 与 addedWords 一一对应
+     * @param patternCount 新算法树的敏感词数量, 大于全部敏感词ID
+     */
+    AcTree update(List<String> addedWords, int[] patternIds, Collection<String> removedWords, int patternCount) {
+        for (String word : removedWords) {
+            remove(word.toLowerCase());
+        }
+        int capacity = 16;
+        for (String word : addedWords) {
+            capacity += word.length();
+        }
+        addedLabel = new char[capacity];
+        addedPattern = new int[capacity];
+        // 本次新增时已设置过敏感词ID的状态, 重复的敏感词保留第一个
+        Set<Integer> assigned = new HashSet<>(addedWords.size() * 2);
+        for (int i = 0; i < addedWords.size(); i++) {
+            add(addedWords.get(i).toLowerCase(), patternIds[i], assigned);
+        }
+        return rebuild(patternCount);
+    }
+
+    private void remove(String word) {
+        int state = ROOT;
+        for (int i = 0; i < word.length() && state != NONE; i++) {
+            state = tree.getChild(state, word.charAt(i));
+        }
+        if (state != NONE && state != ROOT) {
+            patternChanges.put(state, NONE);
+        }
+    }
+
+    private void add(String word, int patternId, Set<Integer> assigned) {
+        if (word.isEmpty()) {
+            return;
+        }
+        int state = ROOT;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            int child = getChild(state, c);
+            if (child == NONE) {
+                child = oldStates + addedCount;
+                addedLabel[addedCount] = c;
+                addedPattern[addedCount] = NONE;
+                addedCount++;
+                addedChildren.computeIfAbsent(state, key -> new ArrayList<>(4)).add(child);
+            }
+            state = child;
+        }
+        if (assigned.add(state)) {
+            if (state < oldStates) {
+                patternChanges.put(state, patternId);
+            } else {
+                addedPattern[state - oldStates] = patternId;
+            }
+        }
+    }
+
+    /**
+     * 按临时编号获取子节点, 原有状态先查原有子节点, 再查新增子节点
+     */
+    private int getChild(int state, char c) {
+        if (state < oldStates) {
+            int child = tree.getChild(state, c);
+            if (child != NONE) {
+                return child;
+            }
+        }
+        List<Integer> children = addedChildren.get(state);
+        if (children != null) {
+            for (Integer child : children) {
+                if (getLabel(child) == c) {
+                    return child;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    private char getLabel(int state) {
+        return state < oldStates ? tree.getLabel(state) : addedLabel[state - oldStates];
+    }
+
+    private int getPattern(int state) {
+        if (state >= oldStates) {
+            return addedPattern[state - oldStates];
+        }
+        Integer changed = patternChanges.get(state);
+        return changed == null ? tree.getPatternId(state) : changed;
+    }
+
+    private AcTree rebuild(int patternCount) {
+        int total = oldStates + addedCount;
+        char[] labels = new char[total];
+        int[] bases = new int[total + 1];
+        int[] fails = new int[total];
+        int[] depths = new int[total];
+        int[] patterns = new int[total];
+        int[] outputs = new int[total];
+        int[] parents = new int[total];
+        // 临时编号 -> 新编号, 新编号 -> 临时编号
+        int[] map = new int[total];
+        int[] order = new int[total];
+        // 新增状态的新编号, 按广度优先顺序
+        int[] addedStates = new int[addedCount];
+        int added = 0;
+
+        for (List<Integer> children : addedChildren.values()) {
+            children.sort(Comparator.comparingInt(this::getLabel));
+        }
+        patterns[ROOT] = NONE;
+        outputs[ROOT] = NONE;
+        parents[ROOT] = NONE;
+        int head = 0;
+        int tail = 1;
+        while (head < total) {
+            int state = order[head];
+            bases[head] = tail;
+            // 合并原有子节点和新增子节点, 保持子节点字符有序
+            int i = state < oldStates ? tree.getFirstChild(state) : 0;
+            int end = state < oldStates ? tree.getFirstChild(state + 1) : 0;
+            List<Integer> extra = addedChildren.get(state);
+            int j = 0;
+            int extraSize = extra == null ? 0 : extra.size();
+            while (i < end || j < extraSize) {
+                int child;
+                if (j == extraSize || (i < end && tree.getLabel(i) < getLabel(extra.get(j)))) {
+                    child = i++;
+                } else {
+                    child = extra.get(j++);
+                }
+                map[child] = tail;
+                order[tail] = child;
+                labels[tail] = getLabel(child);
+                depths[tail] = depths[head] + 1;
+                parents[tail] = head;
+                patterns[tail] = getPattern(child);
+                if (child < oldStates) {
+                    // 失败指针和输出指针都指向更浅的状态, 此时已有新编号
+                    fails[tail] = map[tree.getFailNode(child)];
+                    int oldOutput = tree.getOutputNode(child);
+                    outputs[tail] = oldOutput == NONE ? NONE : map[oldOutput];
+                } else {
+                    addedStates[added++] = tail;
+                }
+                tail++;
+            }
+            head++;
+        }
+        bases[total] = total;
+
+        boolean[] failChanged = new boolean[total];
+        if (addedCount > 0) {
+            buildAddedFailNode(labels, bases, fails, depths, parents, map, order, addedStates, failChanged);
+        }
+        buildChangedOutputNode(fails, patterns, outputs, map, order, failChanged);
+        return new AcTree(patternCount, labels, bases, fails, depths, patterns, outputs, tree.getDenseTableBudget());
+    }
+
+    /**
+     * 为新增状态建立失败指针, 并修改以新增状态为最长后缀的原有状态的失败指针
+     */
+    private void buildAddedFailNode(char[] labels, int[] bases, int[] fails, int[] depths, int[] parents,
+                                    int[] map, int[] order, int[] addedStates, boolean[] failChanged) {
+        // 原有状态的失败指针反向索引: 原失败指针为 s 的状态为 failChildren[failChildStart[s], failChildStart[s + 1]),
+        // 同一失败指针的状态按字符有序, 只需二分查找字符相同的状态, 根节点的反向索引包含大部分状态时也不需要全部检查
+        int[] byLabel = sortByLabel();
+        int[] failChildStart = new int[oldStates + 1];
+        for (int state = 1; state < oldStates; state++) {
+            failChildStart[tree.getFailNode(state) + 1]++;
+        }
+        for (int state = 0; state < oldStates; state++) {
+            failChildStart[state + 1] += failChildStart[state];
+        }
+        int[] failChildren = new int[oldStates];
+        int[] position = Arrays.copyOf(failChildStart, oldStates);
+        for (int state : byLabel) {
+            failChildren[position[tree.getFailNode(state)]++] = state;
+        }
+
+        // 新增状态按广度优先顺序处理, 处理时更浅的状态的失败指针都已确定
+        for (int x : addedStates) {
+            int parent = parents[x];
+            char c = labels[x];
+            int failNode = ROOT;
+            if (parent != ROOT) {
+                failNode = fails[parent];
+                int next = getChild(labels, bases, failNode, c);
+                while (next == NONE && failNode != ROOT) {
+                    failNode = fails[failNode];
+                    next = getChild(labels, bases, failNode, c);
+                }
+                failNode = next == NONE ? ROOT : next;
+            }
+            fails[x] = failNode;
+            failChanged[x] = true;
+
+            // x 最长的原有真后缀状态
+            int g = failNode;
+            while (order[g] >= oldStates) {
+                g = fails[g];
+            }
+            int oldG = order[g];
+            int end = failChildStart[oldG + 1];
+            for (int e = firstWithLabel(failChildren, failChildStart[oldG], end, c); e < end && tree.getLabel(failChildren[e]) == c; e++) {
+                int y = map[failChildren[e]];
+                if (depths[y] > depths[x] && depths[fails[y]] < depths[x]
+                        && endsWith(labels, parents, y, x, depths[x])) {
+                    fails[y] = x;
+                    failChanged[y] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 原有状态(不包括根节点)按字符排序, 字符相同的按编号排序
+     */
+    private int[] sortByLabel() {
+        int[] start = new int[Character.MAX_VALUE + 2];
+        for (int state = 1; state < oldStates; state++) {
+            start[tree.getLabel(state) + 1]++;
+        }
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] sorted = new int[oldStates - 1];
+        for (int state = 1; state < oldStates; state++) {
+            sorted[start[tree.getLabel(state)]++] = state;
+        }
+        return sorted;
+    }
+
+    /**
+     * 在按字符有序的区间 [from, to) 中查找第一个字符不小于 c 的位置
+     */
+    private int firstWithLabel(int[] states, int from, int to, char c) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (tree.getLabel(states[mid]) < c) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * 只为失败指针变化、失败指针的结尾标记或输出指针变化的状态重新计算输出指针
+     */
+    private void buildChangedOutputNode(int[] fails, int[] patterns, int[] outputs, int[] map, int[] order,
+                                        boolean[] failChanged) {
+        int total = fails.length;
+        boolean[] terminalChanged = new boolean[total];
+        for (Map.Entry<Integer, Integer> entry : patternChanges.entrySet()) {
+            int state = entry.getKey();
+            if (tree.isEnd(state) != (entry.getValue() != NONE)) {
+                terminalChanged[map[state]] = true;
+            }
+        }
+        boolean[] outputChanged = new boolean[total];
+        for (int state = 1; state < total; state++) {
+            int failNode = fails[state];
+            boolean added = order[state] >= oldStates;
+            if (added || failChanged[state] || terminalChanged[failNode] || outputChanged[failNode]) {
+                int next = patterns[failNode] != NONE ? failNode : outputs[failNode];
+                if (added || next != outputs[state]) {
+                    outputs[state] = next;
+                    outputChanged[state] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 状态 a 对应的字符串是否以状态 b 对应的字符串(长度为 length)结尾
+     */
+    private static boolean endsWith(char[] labels, int[] parents, int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (labels[a] != labels[b]) {
+                return false;
+            }
+            a = parents[a];
+            b = parents[b];
+        }
+        return true;
+    }
+
+    private static int getChild(char[] labels, int[] bases, int state, char c) {
+        int index = Arrays.binarySearch(labels, bases[state], bases[state + 1], c);
+        return index < 0 ? NONE : index;
+    }
+}
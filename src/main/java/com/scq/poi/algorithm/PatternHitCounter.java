@@ -0,0 +1,142 @@
+package com.scq.poi.algorithm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 按敏感词ID统计的命中次数, 供 {@link AcMatchUtils} 在匹配时累加, 线程安全
+ * <p>
+ * 计数分为多个分段, 每个线程按线程ID固定使用一个分段, 不同分段的线程之间没有竞争;
+ * 分段在第一次使用时才分配, 每个分段占用 8 * 敏感词数量 字节, 读取时合计全部分段。
+ *
+ * @author by suchangqin
+ * @date 2023/9/5 14:20
+ */
+public class PatternHitCounter {
+
+    /**
+     * 分段数量上限, 控制内存占用
+     */
+    private static final int MAX_STRIPES = 8;
+
+    private final int patternCount;
+    private final int mask;
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    /**
+     * 从其它统计继承的命中次数, 没有时为null
+     */
+    private final long[] base;
+
+    /**
+     * @param patternCount 敏感词数量, 敏感词ID都小于该值
+     */
+    public PatternHitCounter(int patternCount) {
+        this(patternCount, null);
+    }
+
+    private PatternHitCounter(int patternCount, long[] base) {
+        this.patternCount = patternCount;
+        this.base = base;
+        int count = 1;
+        while (count < MAX_STRIPES && count < Runtime.getRuntime().availableProcessors()) {
+            count <<= 1;
+        }
+        this.mask = count - 1;
+        this.stripes = new AtomicReferenceArray<>(count);
+    }
+
+    /**
+     * 敏感词命中一次
+     */
+    public void increment(int patternId) {
+        stripe().getAndIncrement(patternId);
+    }
+
+    /**
+     * 当前线程使用的分段, 一次匹配只需获取一次
+     */
+    AtomicLongArray stripe() {
+        int i = (int) Thread.currentThread().getId() & mask;
+        AtomicLongArray stripe = stripes.get(i);
+        if (stripe == null) {
+            stripe = new AtomicLongArray(patternCount);
+            if (!stripes.compareAndSet(i, null, stripe)) {
+                stripe = stripes.get(i);
+            }
+        }
+        return stripe;
+    }
+
+    /**
+     * 敏感词的命中次数
+     */
+    public long get(int patternId) {
+        long sum = base == null ? 0 : base[patternId];
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe != null) {
+                sum += stripe.get(patternId);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 全部敏感词的命中次数, 下标为敏感词ID, 读取期间的命中可能部分计入
+     */
+    public long[] snapshot() {
+        long[] counts = base == null ? new long[patternCount] : base.clone();
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int patternId = 0; patternId < patternCount; patternId++) {
+                counts[patternId] += stripe.get(patternId);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 创建新的统计, 继承当前的命中次数, 用于词典增量更新后继续统计, 当前统计不变;
+     * 创建后在当前统计上的命中不再计入新的统计
+     *
+     * @param patternCount 新的敏感词数量, 新增的敏感词ID从0开始统计
+     * @param resetIds     改为其它敏感词使用的ID, 从0开始统计
+     * @return 新的统计
+     */
+    public PatternHitCounter resize(int patternCount, Collection<Integer> resetIds) {
+        long[] counts = Arrays.copyOf(snapshot(), patternCount);
+        for (int patternId : resetIds) {
+            if (patternId < patternCount) {
+                counts[patternId] = 0;
+            }
+        }
+        return new PatternHitCounter(patternCount, counts);
+    }
+
+    /**
+     * 创建新的统计, 按新的敏感词ID继承当前的命中次数, 用于词典压缩重新编号后继续统计, 当前统计不变
+     *
+     * @param newIds       原敏感词ID对应的新ID, 为-1的不再统计
+     * @param patternCount 新的敏感词数量
+     * @return 新的统计
+     */
+    public PatternHitCounter remap(int[] newIds, int patternCount) {
+        long[] current = snapshot();
+        long[] counts = new long[patternCount];
+        for (int patternId = 0; patternId < Math.min(newIds.length, current.length); patternId++) {
+            if (newIds[patternId] >= 0) {
+                counts[newIds[patternId]] = current[patternId];
+            }
+        }
+        return new PatternHitCounter(patternCount, counts);
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+}
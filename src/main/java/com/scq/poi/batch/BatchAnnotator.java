@@ -0,0 +1,277 @@
+package com.scq.poi.batch;
+
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.dictionary.ParagraphMatchCache;
+import com.scq.poi.metrics.DocxMetrics;
+import com.scq.poi.stream.StreamingDocxAnnotator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 多文档并行批注处理器, 所有文档共用同一个编译后的词典, 使用 {@link StreamingDocxAnnotator} 处理
+ * <p>
+ * 按估算的内存限制同时处理的文档: 提交文档前先占用其估算内存, 超过内存预算时提交线程阻塞, 直到有文档处理完成,
+ * 单个文档的估算内存超过预算时独占全部预算。单个文档处理失败不影响其它文档, 失败原因记录在处理结果中。
+ *
+ * @author by suchangqin
+ * @date 2023/8/31 10:20
+ */
+@Slf4j
+public class BatchAnnotator implements AutoCloseable {
+
+    /**
+     * 每个文档的基础内存估算(字节): 流式处理的缓冲区、段落事件、zip的解压缓冲区等
+     */
+    private static final long BASE_MEMORY = 4L << 20;
+    /**
+     * 文档大小未知时的内存估算(字节)
+     */
+    private static final long UNKNOWN_SIZE_MEMORY = 64L << 20;
+    /**
+     * 内存预算的计数单位(字节)
+     */
+    private static final int PERMIT_UNIT = 1024;
+
+    private final CompiledDictionary dictionary;
+    private final ExecutorService executor;
+    private final Semaphore memory;
+    private final int memoryPermits;
+    private String author = "robot";
+    private ParagraphMatchCache matchCache;
+    private DocxMetrics metrics = DocxMetrics.NOOP;
+
+    /**
+     * 以CPU核数并行处理, 内存预算为最大堆内存的一半
+     */
+    public BatchAnnotator(CompiledDictionary dictionary) {
+        this(dictionary, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /**
+     * @param dictionary   编译后的批注词典
+     * @param threads      并行处理的线程数
+     * @param memoryBudget 同时处理的文档的估算内存之和的上限(字节)
+     */
+    public BatchAnnotator(CompiledDictionary dictionary, int threads, long memoryBudget) {
+        if (threads <= 0 || memoryBudget <= 0) {
+            throw new IllegalArgumentException("线程数和内存预算必须大于0");
+        }
+        this.dictionary = dictionary;
+        this.memoryPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget / PERMIT_UNIT));
+        this.memory = new Semaphore(memoryPermits);
+        AtomicInteger index = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "docx-batch-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 设置批注作者, 见 {@link StreamingDocxAnnotator#setAuthor(String)}
+     */
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    /**
+     * 设置段落匹配结果缓存, 见 {@link StreamingDocxAnnotator#setMatchCache(ParagraphMatchCache)}
+     */
+    public void setMatchCache(ParagraphMatchCache matchCache) {
+        this.matchCache = matchCache;
+    }
+
+    /**
+     * 设置处理指标, 所有文档共用, 见 {@link StreamingDocxAnnotator#setMetrics(DocxMetrics)}
+     */
+    public void setMetrics(DocxMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 批量处理文档, 全部处理完成后返回
+     *
+     * @param tasks 文档
+     * @return 汇总结果
+     */
+    public BatchReport annotate(Collection<BatchTask> tasks) throws InterruptedException {
+        return annotate(tasks, result -> {
+        });
+    }
+
+    /**
+     * 批量处理文档, 全部处理完成后返回
+     *
+     * @param tasks    文档
+     * @param listener 每个文档处理完成时在处理线程中回调
+     * @return 汇总结果
+     */
+    public BatchReport annotate(Collection<BatchTask> tasks, Consumer<BatchResult> listener) throws InterruptedException {
+        long begin = System.nanoTime();
+        List<Future<BatchResult>> futures = new ArrayList<>(tasks.size());
+        List<Reservation> reservations = new ArrayList<>(tasks.size());
+        List<BatchResult> results = new ArrayList<>(tasks.size());
+        try {
+            for (BatchTask task : tasks) {
+                // 内存预算不足时阻塞, 直到有文档处理完成
+                Reservation reservation = new Reservation(estimatePermits(task));
+                try {
+                    futures.add(executor.submit(() -> {
+                        if (!reservation.start()) {
+                            // 开始前已被取消, 内存预算已归还
+                            return null;
+                        }
+                        try {
+                            BatchResult result = process(task);
+                            listener.accept(result);
+                            return result;
+                        } finally {
+                            reservation.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    reservation.cancel();
+                    throw e;
+                }
+                reservations.add(reservation);
+            }
+            int i = 0;
+            for (BatchTask task : tasks) {
+                results.add(getResult(task, futures.get(i++)));
+            }
+        } catch (InterruptedException e) {
+            for (int i = 0; i < futures.size(); i++) {
+                // 未开始的文档在此归还内存预算且不会再开始; 已开始的中断处理, 由处理线程处理结束时归还
+                reservations.get(i).cancel();
+                futures.get(i).cancel(true);
+            }
+            throw e;
+        }
+        BatchReport report = new BatchReport(results, System.nanoTime() - begin);
+        log.info("批量批注完成: {}", report);
+        return report;
+    }
+
+    private static BatchResult getResult(BatchTask task, Future<BatchResult> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Exception error = cause instanceof Exception ? (Exception) cause : e;
+            return BatchResult.failure(task.getName(), task.getSize(), error, 0);
+        }
+    }
+
+    /**
+     * 处理一个文档, 输入流先保存为临时文件再处理
+     */
+    private BatchResult process(BatchTask task) {
+        long begin = System.nanoTime();
+        Path temp = null;
+        try {
+            Path source = task.getSource();
+            if (source == null) {
+                temp = Files.createTempFile("docx-batch-", ".docx");
+                try (InputStream in = task.getInput().open()) {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                source = temp;
+            }
+            StreamingDocxAnnotator annotator = new StreamingDocxAnnotator(dictionary);
+            annotator.setAuthor(author);
+            annotator.setMatchCache(matchCache);
+            annotator.setMetrics(metrics);
+            int commentCount;
+            try (OutputStream out = task.getOutput().open()) {
+                commentCount = annotator.execute(source, out);
+            }
+            long size = task.getSize() >= 0 ? task.getSize() : Files.size(source);
+            return BatchResult.success(task.getName(), size, commentCount, System.nanoTime() - begin);
+        } catch (Exception e) {
+            log.warn("文档 {} 批注失败", task.getName(), e);
+            return BatchResult.failure(task.getName(), task.getSize(), e, System.nanoTime() - begin);
+        } finally {
+            deleteTemp(temp);
+        }
+    }
+
+    private static void deleteTemp(Path temp) {
+        if (temp == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            log.warn("临时文件删除失败: {}", temp, e);
+        }
+    }
+
+    /**
+     * 估算处理文档所需内存的计数, 不超过全部预算
+     */
+    private int estimatePermits(BatchTask task) {
+        long bytes = task.getSize() < 0 ? UNKNOWN_SIZE_MEMORY : BASE_MEMORY + task.getSize();
+        return (int) Math.min(memoryPermits, Math.max(1, bytes / PERMIT_UNIT));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * 一个文档占用的内存预算: 开始处理前可由提交方取消并归还, 开始处理后只由处理线程在处理结束时归还, 只归还一次
+     */
+    private final class Reservation {
+        private static final int PENDING = 0;
+        private static final int STARTED = 1;
+        private static final int RELEASED = 2;
+
+        private final int permits;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private Reservation(int permits) throws InterruptedException {
+            memory.acquire(permits);
+            this.permits = permits;
+        }
+
+        /**
+         * 处理线程开始处理
+         *
+         * @return 是否可以开始, 已被取消时返回false
+         */
+        private boolean start() {
+            return state.compareAndSet(PENDING, STARTED);
+        }
+
+        /**
+         * 处理线程处理结束时归还
+         */
+        private void release() {
+            if (state.compareAndSet(STARTED, RELEASED)) {
+                memory.release(permits);
+            }
+        }
+
+        /**
+         * 取消未开始的处理并归还, 已开始的不归还
+         */
+        private void cancel() {
+            if (state.compareAndSet(PENDING, RELEASED)) {
+                memory.release(permits);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.scq.poi.batch;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量处理的汇总结果
+ *
+ * @author by suchangqin
+ * @date 2023/8/31 10:05
+ */
+@Getter
+public class BatchReport {
+
+    /**
+     * 每个文档的处理结果, 与提交顺序相同
+     */
+    private final List<BatchResult> results;
+    private final int successCount;
+    private final int failureCount;
+    /**
+     * 已知大小的文档的总大小(字节)
+     */
+    private final long totalBytes;
+    private final long totalComments;
+    /**
+     * 整批的处理耗时(纳秒)
+     */
+    private final long elapsedNanos;
+
+    BatchReport(List<BatchResult> results, long elapsedNanos) {
+        this.results = Collections.unmodifiableList(results);
+        this.elapsedNanos = elapsedNanos;
+        int success = 0;
+        long bytes = 0;
+        long comments = 0;
+        for (BatchResult result : results) {
+            if (result.isSuccess()) {
+                success++;
+                comments += result.getCommentCount();
+            }
+            if (result.getSize() > 0) {
+                bytes += result.getSize();
+            }
+        }
+        this.successCount = success;
+        this.failureCount = results.size() - success;
+        this.totalBytes = bytes;
+        this.totalComments = comments;
+    }
+
+    /**
+     * 每秒处理的文档数
+     */
+    public double getDocumentsPerSecond() {
+        return elapsedNanos == 0 ? 0 : results.size() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * 每秒处理的文档大小(MB)
+     */
+    public double getMegabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : totalBytes / 1024.0 / 1024.0 * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("共 %d 个文档, 成功 %d 个, 失败 %d 个, 新增批注 %d 个, 耗时 %.1f s, %.1f 个/s, %.1f MB/s",
+                results.size(), successCount, failureCount, totalComments, elapsedNanos / 1e9,
+                getDocumentsPerSecond(), getMegabytesPerSecond());
+    }
+}
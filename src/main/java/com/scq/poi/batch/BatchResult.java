@@ -0,0 +1,52 @@
+package com.scq.poi.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 批量处理中一个文档的处理结果
+ *
+ * @author by suchangqin
+ * @date 2023/8/31 9:52
+ */
+@Getter
+@AllArgsConstructor
+public class BatchResult {
+
+    /**
+     * 文档名称
+     */
+    private final String name;
+    private final boolean success;
+    /**
+     * 处理失败的异常, 成功时为null
+     */
+    private final Exception error;
+    /**
+     * 文档大小(字节), 未知时为-1
+     */
+    private final long size;
+    /**
+     * 新增的批注数量
+     */
+    private final int commentCount;
+    /**
+     * 处理耗时(纳秒)
+     */
+    private final long elapsedNanos;
+
+    static BatchResult success(String name, long size, int commentCount, long elapsedNanos) {
+        return new BatchResult(name, true, null, size, commentCount, elapsedNanos);
+    }
+
+    static BatchResult failure(String name, long size, Exception error, long elapsedNanos) {
+        return new BatchResult(name, false, error, size, 0, elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return success
+                ? name + " 处理成功, 新增批注 " + commentCount + " 个, 耗时 " + elapsedNanos / 1_000_000 + " ms"
+                : name + " 处理失败: " + error;
+    }
+}
@@ -0,0 +1,79 @@
+package com.scq.poi.batch;
+
+import lombok.Getter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 批量处理中的一个文档, 输入为文件或输入流, 输出为输出流
+ *
+ * @author by suchangqin
+ * @date 2023/8/31 9:40
+ */
+@Getter
+public final class BatchTask {
+
+    /**
+     * 文档名称, 用于处理结果
+     */
+    private final String name;
+    /**
+     * 输入文件, 以输入流输入时为null
+     */
+    private final Path source;
+    private final Opener<InputStream> input;
+    private final Opener<OutputStream> output;
+    /**
+     * 文档大小(字节), 用于估算处理时占用的内存, 未知时为-1
+     */
+    private final long size;
+
+    private BatchTask(String name, Path source, Opener<InputStream> input, Opener<OutputStream> output, long size) {
+        this.name = name;
+        this.source = source;
+        this.input = input;
+        this.output = output;
+        this.size = size;
+    }
+
+    /**
+     * 处理文件, 结果保存到目标文件
+     *
+     * @param source docx文档文件路径
+     * @param target 处理后的文档保存路径, 目录不存在时自动创建
+     */
+    public static BatchTask of(Path source, Path target) throws IOException {
+        return new BatchTask(source.toString(), source, () -> Files.newInputStream(source), () -> {
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            return new BufferedOutputStream(Files.newOutputStream(target));
+        }, Files.size(source));
+    }
+
+    /**
+     * 处理输入流, 结果写入输出流, 两个流都在处理时才打开, 处理完成后关闭
+     *
+     * @param name   文档名称
+     * @param input  docx文档的输入流
+     * @param size   文档大小(字节), 未知时为-1
+     * @param output 处理后的文档的输出流
+     */
+    public static BatchTask of(String name, Opener<InputStream> input, long size, Opener<OutputStream> output) {
+        return new BatchTask(name, null, input, output, size);
+    }
+
+    /**
+     * 打开输入流或输出流
+     */
+    @FunctionalInterface
+    public interface Opener<T> {
+        T open() throws IOException;
+    }
+}
@@ -0,0 +1,568 @@
+package com.scq.poi.dictionary;
+
+import com.scq.poi.algorithm.AcMatchUtils;
+import com.scq.poi.algorithm.AcTree;
+import com.scq.poi.algorithm.PatternHitCounter;
+import com.scq.poi.utils.DigestUtils;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 编译后的批注词典: 敏感词构建的AC算法树, 以及每个敏感词对应的批注内容, 创建后不可变, 可被多个文档同时使用
+ * <p>
+ * 可通过 {@link #writeTo(Path)} 保存为带版本号的二进制文件, 再通过 {@link #load(Path)} 以内存映射的方式加载,
+ * 加载时只读取文件头, 算法树直接使用映射的数据, 同一台机器上的多个JVM共享同一份页缓存。
+ * <p>
+ * 文件格式(小端序, 每段按8字节对齐):
+ * <pre>
+ * int     魔数 "ACDT"
+ * int     格式版本
+ * byte[]  指纹, 32字节, 见 {@link #getFingerprint()}
+ * ...     算法树, 见 {@link AcTree#writeTo(ByteBuffer)}
+ * ...     敏感词字符串表
+ * ...     批注内容字符串表
+ * </pre>
+ * 字符串表为: int 数量n, int[n + 1] UTF-8字节偏移, 字节数据
+ *
+ * @author by suchangqin
+ * @date 2023/8/28 10:12
+ */
+public final class CompiledDictionary {
+
+    private static final int MAGIC = 0x54444341;
+    private static final int FORMAT_VERSION = 2;
+    /**
+     * 指纹按变更历史计算的文件格式版本, 加载时按内容重新计算指纹
+     */
+    private static final int HISTORY_FINGERPRINT_VERSION = 1;
+    private static final int FINGERPRINT_BYTES = 32;
+    private static final int HEADER_BYTES = 8 + FINGERPRINT_BYTES;
+    private static final int ALIGNMENT = 8;
+    /**
+     * 增量更新后无效的状态数或敏感词ID数超过有效数量的一半且不少于该值时, 从有效的敏感词重新编译
+     */
+    private static final int COMPACT_MIN_DEAD = 1024;
+
+    /**
+     * AC算法树, 敏感词ID即字符串表的下标
+     */
+    @Getter
+    private final AcTree tree;
+    /**
+     * 基于算法树的匹配器, 无状态, 可被多个线程共享
+     */
+    @Getter
+    private final AcMatchUtils matcher;
+    /**
+     * 词典内容的指纹(十六进制), 为每个有效敏感词(转小写)及其批注内容的SHA-256的异或,
+     * 与敏感词的顺序及编译、增量更新的过程无关, 内容相同的词典指纹相同; 增量更新时只计算变化的敏感词
+     */
+    @Getter
+    private final String fingerprint;
+
+    /**
+     * 敏感词命中次数统计, 不统计时为null, 见 {@link #withHitCounting()}
+     */
+    @Getter
+    private final PatternHitCounter hitCounter;
+
+    private final StringTable words;
+    private final StringTable comments;
+
+    private CompiledDictionary(AcTree tree, String fingerprint, StringTable words, StringTable comments) {
+        this(tree, fingerprint, words, comments, null);
+    }
+
+    private CompiledDictionary(AcTree tree, String fingerprint, StringTable words, StringTable comments,
+                               PatternHitCounter hitCounter) {
+        this.tree = tree;
+        this.matcher = new AcMatchUtils(tree, hitCounter);
+        this.fingerprint = fingerprint;
+        this.words = words;
+        this.comments = comments;
+        this.hitCounter = hitCounter;
+    }
+
+    /**
+     * 编译批注词典
+     *
+     * @param commentMap key: 批注所标记的文本, value: 批注的内容
+     * @return 编译后的词典
+     */
+    public static CompiledDictionary compile(Map<String, String> commentMap) {
+        List<String> wordList = new ArrayList<>(commentMap.size());
+        String[] commentTexts = new String[commentMap.size()];
+        for (Map.Entry<String, String> entry : commentMap.entrySet()) {
+            commentTexts[wordList.size()] = entry.getValue() == null ? "" : entry.getValue();
+            wordList.add(entry.getKey());
+        }
+        AcTree tree = new AcTree(wordList, true);
+        StringTable words = new StringTable(wordList.toArray(new String[0]));
+        StringTable comments = new StringTable(commentTexts);
+        return new CompiledDictionary(tree, DigestUtils.toHex(fingerprint(tree, words, comments)), words, comments);
+    }
+
+    /**
+     * 增量新增和删除敏感词, 返回新的词典, 当前词典不变, 正在使用当前词典的处理不受影响。
+     * 算法树只为变化的部分重新计算失败指针和输出指针, 见 {@link AcTree#update(List, int[], Collection, int)};
+     * 已存在的敏感词保留原ID, 新增的敏感词优先复用已删除的敏感词的ID(包括之前的更新删除的);
+     * 字符串表每次更新都合并为一个, 读取时不随更新次数变慢。新词典的指纹只按变化的敏感词计算, 与重新编译的指纹相同。
+     * 删除敏感词留下的无效状态或未复用的ID超过有效数量的一半时, 从有效的敏感词重新编译(敏感词ID会重新编号),
+     * 算法树、字符串表和命中统计不会随更新次数一直增长。
+     * 当前词典统计命中次数时, 新词典继续统计, 保留未变化的敏感词的命中次数。
+     *
+     * @param addedCommentMap 新增的敏感词及批注内容, 已存在的敏感词会使用新的批注内容
+     * @param removedWords    删除的敏感词
+     * @return 新的词典
+     */
+    public CompiledDictionary update(Map<String, String> addedCommentMap, Collection<String> removedWords) {
+        // 已删除和本次删除的敏感词的ID, 文本为空字符串的ID可复用, 未被新增的敏感词复用的清空其文本
+        byte[] digest = DigestUtils.fromHex(fingerprint);
+        Set<String> removedLower = new HashSet<>(removedWords.size() * 2);
+        TreeSet<Integer> freeIds = new TreeSet<>();
+        for (int patternId = 0; patternId < getPatternCount(); patternId++) {
+            if (words.isEmpty(patternId)) {
+                freeIds.add(patternId);
+            }
+        }
+        for (String word : removedWords) {
+            removedLower.add(word.toLowerCase());
+            int patternId = tree.find(word);
+            if (patternId != AcTree.NONE && freeIds.add(patternId)) {
+                xor(digest, entryDigest(getWord(patternId), getComment(patternId)));
+            }
+        }
+        int patternCount = getPatternCount();
+        List<String> wordList = new ArrayList<>(addedCommentMap.size());
+        int[] patternIds = new int[addedCommentMap.size()];
+        // 变化的敏感词原文和批注内容, key为敏感词ID
+        Map<String, Integer> assigned = new HashMap<>(addedCommentMap.size() * 2);
+        Map<Integer, String> changedWords = new HashMap<>(addedCommentMap.size() * 2);
+        Map<Integer, String> changedComments = new HashMap<>(addedCommentMap.size() * 2);
+        // 改为其它敏感词使用的ID, 命中次数重新统计
+        Set<Integer> resetIds = new HashSet<>(freeIds);
+        for (Map.Entry<String, String> entry : addedCommentMap.entrySet()) {
+            String lower = entry.getKey().toLowerCase();
+            Integer patternId = assigned.get(lower);
+            if (patternId == null) {
+                // 转小写后重复的敏感词使用第一个的ID和批注内容
+                int existing = removedLower.contains(lower) ? AcTree.NONE : tree.find(lower);
+                if (existing != AcTree.NONE) {
+                    patternId = existing;
+                    xor(digest, entryDigest(getWord(existing), getComment(existing)));
+                } else if (!freeIds.isEmpty()) {
+                    patternId = freeIds.pollFirst();
+                } else {
+                    patternId = patternCount++;
+                }
+                assigned.put(lower, patternId);
+                changedWords.put(patternId, entry.getKey());
+                changedComments.put(patternId, entry.getValue() == null ? "" : entry.getValue());
+                xor(digest, entryDigest(entry.getKey(), changedComments.get(patternId)));
+            }
+            patternIds[wordList.size()] = patternId;
+            wordList.add(entry.getKey());
+        }
+        for (Integer patternId : freeIds) {
+            changedWords.put(patternId, "");
+            changedComments.put(patternId, "");
+        }
+        AcTree updated = tree.update(wordList, patternIds, removedWords, patternCount);
+        CompiledDictionary result = new CompiledDictionary(updated, DigestUtils.toHex(digest),
+                new StringTable(words, changedWords, patternCount), new StringTable(comments, changedComments, patternCount),
+                hitCounter == null ? null : hitCounter.resize(patternCount, resetIds));
+        int liveStates = updated.getLiveStateCount();
+        int liveIds = patternCount - freeIds.size();
+        if (isMostlyDead(updated.getStateCount() - liveStates, liveStates) || isMostlyDead(freeIds.size(), liveIds)) {
+            return result.compact();
+        }
+        return result;
+    }
+
+    private static boolean isMostlyDead(int dead, int live) {
+        return dead >= COMPACT_MIN_DEAD && dead > live / 2;
+    }
+
+    /**
+     * 从有效的敏感词重新编译, 去掉无效状态和已删除的敏感词ID, 敏感词ID按原顺序重新编号, 指纹不变
+     */
+    private CompiledDictionary compact() {
+        Map<String, String> live = new LinkedHashMap<>(getPatternCount() * 2);
+        int[] newIds = new int[getPatternCount()];
+        for (int patternId = 0; patternId < newIds.length; patternId++) {
+            String word = getWord(patternId);
+            if (!word.isEmpty() && tree.find(word) == patternId) {
+                newIds[patternId] = live.size();
+                live.put(word, getComment(patternId));
+            } else {
+                newIds[patternId] = -1;
+            }
+        }
+        CompiledDictionary compacted = compile(live);
+        if (hitCounter == null) {
+            return compacted;
+        }
+        return new CompiledDictionary(compacted.tree, compacted.fingerprint, compacted.words, compacted.comments,
+                hitCounter.remap(newIds, compacted.getPatternCount()));
+    }
+
+    /**
+     * 以内存映射的方式加载编译后的词典文件, 文件在词典被回收前不应被修改, 更新时应写入新文件后替换
+     *
+     * @param path 词典文件
+     * @return 编译后的词典
+     * @throws IOException 文件不存在或格式、版本不正确
+     */
+    public static CompiledDictionary load(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("不是批注词典文件: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION && version != HISTORY_FINGERPRINT_VERSION) {
+            throw new IOException("不支持的批注词典文件版本: " + version + ", 当前版本: " + FORMAT_VERSION);
+        }
+        byte[] digest = new byte[FINGERPRINT_BYTES];
+        buffer.get(digest);
+        AcTree tree = AcTree.readFrom(buffer);
+        StringTable words = StringTable.readFrom(buffer);
+        StringTable comments = StringTable.readFrom(buffer);
+        if (version == HISTORY_FINGERPRINT_VERSION) {
+            digest = fingerprint(tree, words, comments);
+        }
+        return new CompiledDictionary(tree, DigestUtils.toHex(digest), words, comments);
+    }
+
+    /**
+     * 保存为二进制文件, 先写入同目录的临时文件再原子替换, 已映射旧文件的进程不受影响
+     *
+     * @param path 词典文件
+     * @throws IOException 写入异常
+     */
+    public void writeTo(Path path) throws IOException {
+        int size = HEADER_BYTES + tree.getSerializedSize() + words.getSerializedSize() + comments.getSerializedSize();
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).put(DigestUtils.fromHex(fingerprint));
+        tree.writeTo(buffer);
+        words.writeTo(buffer);
+        comments.writeTo(buffer);
+        buffer.flip();
+
+        Path absolute = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 返回统计敏感词命中次数的词典, 与当前词典共用算法树和字符串表, 当前词典不变。
+     * 通过新词典的匹配器匹配时累加每个敏感词的命中次数, 见 {@link #getHitReport(int, int)}
+     *
+     * @return 新的词典, 当前词典已统计时返回当前词典
+     */
+    public CompiledDictionary withHitCounting() {
+        if (hitCounter != null) {
+            return this;
+        }
+        return new CompiledDictionary(tree, fingerprint, words, comments, new PatternHitCounter(getPatternCount()));
+    }
+
+    /**
+     * 返回使用指定命中次数统计的词典, 用于淘汰后重新加载的词典继续原来的统计; 敏感词数量不同时按当前词典调整
+     *
+     * @param counter 原来的命中次数统计
+     * @return 新的词典, 算法树和字符串表与当前词典共用
+     */
+    CompiledDictionary withHitCounter(PatternHitCounter counter) {
+        if (counter.getPatternCount() != getPatternCount()) {
+            counter = counter.resize(getPatternCount(), Collections.emptyList());
+        }
+        return new CompiledDictionary(tree, fingerprint, words, comments, counter);
+    }
+
+    /**
+     * 统计敏感词的命中情况, 只包括算法树中有效的敏感词, 增量更新删除的和重复的敏感词不统计
+     *
+     * @param topN      返回命中次数最多的敏感词数量
+     * @param deadLimit 返回从未命中的敏感词数量上限
+     * @return 命中统计
+     * @throws IllegalStateException 词典没有统计命中次数
+     */
+    public DictionaryHitReport getHitReport(int topN, int deadLimit) {
+        if (hitCounter == null) {
+            throw new IllegalStateException("词典没有统计命中次数, 请使用 withHitCounting() 返回的词典");
+        }
+        long[] counts = hitCounter.snapshot();
+        boolean[] live = new boolean[counts.length];
+        for (int state = 0; state < tree.getStateCount(); state++) {
+            if (tree.isEnd(state)) {
+                live[tree.getPatternId(state)] = true;
+            }
+        }
+        long totalHits = 0;
+        int liveCount = 0;
+        int deadCount = 0;
+        List<DictionaryHitReport.TermHits> deadTerms = new ArrayList<>(Math.min(deadLimit, 64));
+        // 最小堆, 堆顶为当前前N个中命中次数最少的
+        PriorityQueue<Integer> top = new PriorityQueue<>(Math.max(1, topN),
+                (a, b) -> counts[a] != counts[b] ? Long.compare(counts[a], counts[b]) : Integer.compare(b, a));
+        for (int patternId = 0; patternId < counts.length; patternId++) {
+            if (!live[patternId]) {
+                continue;
+            }
+            liveCount++;
+            totalHits += counts[patternId];
+            if (counts[patternId] == 0) {
+                if (deadCount++ < deadLimit) {
+                    deadTerms.add(new DictionaryHitReport.TermHits(getWord(patternId), 0));
+                }
+                continue;
+            }
+            if (topN > 0) {
+                top.add(patternId);
+                if (top.size() > topN) {
+                    top.poll();
+                }
+            }
+        }
+        DictionaryHitReport.TermHits[] topTerms = new DictionaryHitReport.TermHits[top.size()];
+        for (int i = topTerms.length - 1; i >= 0; i--) {
+            int patternId = top.poll();
+            topTerms[i] = new DictionaryHitReport.TermHits(getWord(patternId), counts[patternId]);
+        }
+        return new DictionaryHitReport(fingerprint, liveCount, totalHits, deadCount,
+                Arrays.asList(topTerms), deadTerms);
+    }
+
+    /**
+     * 敏感词数量, 敏感词ID都小于该值
+     */
+    public int getPatternCount() {
+        return words.size();
+    }
+
+    /**
+     * 获取敏感词原文
+     */
+    public String getWord(int patternId) {
+        return words.get(patternId);
+    }
+
+    /**
+     * 获取敏感词对应的批注内容
+     */
+    public String getComment(int patternId) {
+        return comments.get(patternId);
+    }
+
+    /**
+     * 词典占用的内存字节数(堆内或内存映射), 用于词典注册中心按内存预算淘汰
+     */
+    public long getSizeInBytes() {
+        return tree.getSizeInBytes() + words.getSerializedSize() + comments.getSerializedSize();
+    }
+
+    /**
+     * 按内容计算指纹, 见 {@link #getFingerprint()}: 只包括算法树中有效的敏感词, 转小写后重复的只计算第一个
+     */
+    private static byte[] fingerprint(AcTree tree, StringTable words, StringTable comments) {
+        byte[] digest = new byte[FINGERPRINT_BYTES];
+        for (int patternId = 0; patternId < words.size(); patternId++) {
+            String word = words.get(patternId);
+            if (!word.isEmpty() && tree.find(word) == patternId) {
+                xor(digest, entryDigest(word, comments.get(patternId)));
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * 一个敏感词及其批注内容的摘要, 敏感词不区分大小写
+     */
+    private static byte[] entryDigest(String word, String comment) {
+        MessageDigest digest = DigestUtils.newSha256();
+        digest.update(word.toLowerCase().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(comment.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    private static void xor(byte[] target, byte[] value) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] ^= value[i];
+        }
+    }
+
+    private static int align(int bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * 字符串表, 字符串按UTF-8保存在同一个缓冲区中, 首次读取时解码并缓存;
+     * 增量更新时合并为新的字符串表, 未变化的字符串按字节复制, 不解码
+     */
+    private static final class StringTable {
+        private final IntBuffer offsets;
+        private final ByteBuffer data;
+        /**
+         * 已解码的字符串, String不可变, 多线程下重复解码也不影响结果
+         */
+        private final String[] cache;
+
+        private StringTable(String[] values) {
+            this.cache = values;
+            int[] offsetArray = new int[values.length + 1];
+            List<byte[]> encoded = new ArrayList<>(values.length);
+            for (int i = 0; i < values.length; i++) {
+                byte[] bytes = values[i].getBytes(StandardCharsets.UTF_8);
+                encoded.add(bytes);
+                offsetArray[i + 1] = offsetArray[i] + bytes.length;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(offsetArray[values.length]);
+            for (byte[] value : encoded) {
+                bytes.put(value);
+            }
+            bytes.flip();
+            this.offsets = IntBuffer.wrap(offsetArray);
+            this.data = bytes;
+        }
+
+        /**
+         * 合并原字符串表和变化的字符串
+         *
+         * @param previous 原字符串表
+         * @param changes  变化的字符串, key为下标
+         * @param size     新字符串表的大小, 不小于原字符串表的大小, 新增的下标没有变化时为空字符串
+         */
+        private StringTable(StringTable previous, Map<Integer, String> changes, int size) {
+            this.cache = new String[size];
+            byte[][] encoded = new byte[size][];
+            int[] offsetArray = new int[size + 1];
+            for (int i = 0; i < size; i++) {
+                String changed = changes.get(i);
+                int length;
+                if (changed != null || i >= previous.size()) {
+                    cache[i] = changed == null ? "" : changed;
+                    encoded[i] = cache[i].getBytes(StandardCharsets.UTF_8);
+                    length = encoded[i].length;
+                } else {
+                    cache[i] = previous.cache[i];
+                    length = previous.offsets.get(i + 1) - previous.offsets.get(i);
+                }
+                offsetArray[i + 1] = offsetArray[i] + length;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(offsetArray[size]);
+            for (int i = 0; i < size; i++) {
+                if (encoded[i] != null) {
+                    bytes.put(encoded[i]);
+                } else {
+                    ByteBuffer value = previous.data.duplicate();
+                    value.limit(previous.offsets.get(i + 1));
+                    value.position(previous.offsets.get(i));
+                    bytes.put(value);
+                }
+            }
+            bytes.flip();
+            this.offsets = IntBuffer.wrap(offsetArray);
+            this.data = bytes;
+        }
+
+        private StringTable(IntBuffer offsets, ByteBuffer data) {
+            this.offsets = offsets;
+            this.data = data;
+            this.cache = new String[offsets.limit() - 1];
+        }
+
+        private static StringTable readFrom(ByteBuffer buffer) {
+            int size = slice(buffer, Integer.BYTES).getInt(0);
+            IntBuffer offsets = slice(buffer, (size + 1) * Integer.BYTES).asIntBuffer();
+            ByteBuffer data = slice(buffer, offsets.get(size));
+            return new StringTable(offsets, data);
+        }
+
+        private int size() {
+            return cache.length;
+        }
+
+        private boolean isEmpty(int index) {
+            return offsets.get(index + 1) == offsets.get(index);
+        }
+
+        private String get(int index) {
+            String value = cache[index];
+            if (value == null) {
+                ByteBuffer bytes = data.duplicate();
+                bytes.limit(offsets.get(index + 1));
+                bytes.position(offsets.get(index));
+                value = StandardCharsets.UTF_8.decode(bytes).toString();
+                cache[index] = value;
+            }
+            return value;
+        }
+
+        /**
+         * 全部字符串的UTF-8字节数
+         */
+        private int getByteCount() {
+            return offsets.get(size());
+        }
+
+        private int getSerializedSize() {
+            return align(Integer.BYTES) + align((size() + 1) * Integer.BYTES) + align(getByteCount());
+        }
+
+        private void writeTo(ByteBuffer buffer) {
+            int size = size();
+            slice(buffer, Integer.BYTES).putInt(0, size);
+            slice(buffer, (size + 1) * Integer.BYTES).asIntBuffer().put(offsets.duplicate());
+            slice(buffer, getByteCount()).put(data.duplicate());
+        }
+
+        /**
+         * 从缓冲区当前位置截取指定字节数, 并将位置按对齐后的长度后移
+         */
+        private static ByteBuffer slice(ByteBuffer buffer, int bytes) {
+            ByteBuffer slice = buffer.slice();
+            slice.limit(bytes);
+            buffer.position(buffer.position() + align(bytes));
+            return slice.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.scq.poi.dictionary;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 词典的敏感词命中统计, 用于精简词典: 命中最多的敏感词产生了大部分批注, 从未命中的敏感词可考虑删除
+ *
+ * @author by suchangqin
+ * @date 2023/9/5 15:00
+ */
+@Getter
+@AllArgsConstructor
+public class DictionaryHitReport {
+
+    /**
+     * 词典指纹
+     */
+    private final String fingerprint;
+    /**
+     * 有效的敏感词数量
+     */
+    private final int termCount;
+    /**
+     * 全部敏感词的命中次数之和
+     */
+    private final long totalHits;
+    /**
+     * 从未命中的敏感词数量
+     */
+    private final int deadCount;
+    /**
+     * 命中次数最多的敏感词, 按命中次数降序
+     */
+    private final List<TermHits> topTerms;
+    /**
+     * 从未命中的敏感词, 按敏感词ID顺序, 数量可能少于 {@link #deadCount}
+     */
+    private final List<TermHits> deadTerms;
+
+    /**
+     * 敏感词及其命中次数
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class TermHits {
+        private final String word;
+        private final long hits;
+
+        @Override
+        public String toString() {
+            return word + "=" + hits;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("terms=%d, hits=%d, dead=%d, top=%s", termCount, totalHits, deadCount, topTerms);
+    }
+}
@@ -0,0 +1,22 @@
+package com.scq.poi.dictionary;
+
+import java.io.IOException;
+
+/**
+ * 批注词典的加载方式, 词典被注册中心淘汰后再次使用时会重新加载,
+ * 如: {@code () -> CompiledDictionary.load(path)}
+ *
+ * @author by suchangqin
+ * @date 2023/8/28 10:12
+ */
+@FunctionalInterface
+public interface DictionaryLoader {
+
+    /**
+     * 加载批注词典
+     *
+     * @return 编译后的词典
+     * @throws IOException 加载异常
+     */
+    CompiledDictionary load() throws IOException;
+}
@@ -0,0 +1,338 @@
+package com.scq.poi.dictionary;
+
+import com.scq.poi.algorithm.PatternHitCounter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 批注词典注册中心, 按名称和版本保存不可变的编译后词典, 线程安全, 多个文档可同时共享同一个词典
+ * <p>
+ * 注册新版本时先加载完成再原子替换, 已取得旧版本词典的处理不受影响; 读取已加载的词典时无锁。
+ * 已加载词典的总大小超过内存预算时, 淘汰最久未使用的词典, 被淘汰的词典在下次使用时通过 {@link DictionaryLoader} 重新加载,
+ * 直接以词典实例注册的不会被淘汰。增量更新的词典保存到快照目录, 淘汰后从快照文件加载, 未指定快照目录时不会被淘汰。
+ *
+ * @author by suchangqin
+ * @date 2023/8/28 10:12
+ */
+@Slf4j
+public class DictionaryRegistry {
+
+    /**
+     * 已加载词典的内存预算(字节)
+     */
+    private final long memoryBudget;
+    /**
+     * 增量更新后的词典快照目录, 为null时不保存快照
+     */
+    private final Path snapshotDirectory;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>(16);
+
+    /**
+     * 创建不限制内存的注册中心
+     */
+    public DictionaryRegistry() {
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * @param memoryBudget 已加载词典的内存预算(字节), 超过时淘汰最久未使用的词典
+     */
+    public DictionaryRegistry(long memoryBudget) {
+        this(memoryBudget, null);
+    }
+
+    /**
+     * @param memoryBudget      已加载词典的内存预算(字节), 超过时淘汰最久未使用的词典
+     * @param snapshotDirectory 增量更新后的词典快照目录, 不存在时在第一次更新时创建, 为null时增量更新后的词典不会被淘汰
+     */
+    public DictionaryRegistry(long memoryBudget, Path snapshotDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * 注册词典, 加载完成后替换同名的旧版本
+     *
+     * @param name    词典名称
+     * @param version 词典版本, 必须大于当前已注册的版本
+     * @param loader  词典加载方式, 淘汰后重新加载时使用
+     * @return 是否替换成功, 版本不大于当前版本时返回false
+     * @throws IOException 加载异常, 此时旧版本继续生效
+     */
+    public boolean register(String name, long version, DictionaryLoader loader) throws IOException {
+        Entry current = entries.get(name);
+        if (current != null && current.version >= version) {
+            return false;
+        }
+        // 在替换前加载, 加载期间请求继续使用旧版本
+        Entry entry = new Entry(name, version, loader, loader.load(), true, null);
+        return publish(entry, null);
+    }
+
+    /**
+     * 注册已编译的词典, 该词典不会被淘汰
+     *
+     * @param name       词典名称
+     * @param version    词典版本, 必须大于当前已注册的版本
+     * @param dictionary 编译后的词典
+     * @return 是否替换成功, 版本不大于当前版本时返回false
+     */
+    public boolean register(String name, long version, CompiledDictionary dictionary) {
+        return publish(new Entry(name, version, () -> dictionary, dictionary, false, null), null);
+    }
+
+    /**
+     * 在当前版本上增量新增和删除敏感词, 作为新版本原子替换当前版本, 见 {@link CompiledDictionary#update(Map, Collection)};
+     * 当前版本统计命中次数时, 新版本继续统计
+     * <p>
+     * 新版本保存为快照目录中的 名称.版本.dict 文件, 被淘汰后直接加载该文件, 不重新应用历次变更, 被替换后删除;
+     * 未指定快照目录时新版本不会被淘汰。
+     * 并发更新同一个词典时, 只在发布时的当前版本上应用变更: 当前版本已被替换时, 在新的当前版本上重新应用, 不会丢失其它更新的变更
+     *
+     * @param name            词典名称
+     * @param version         新版本, 必须大于当前已注册的版本
+     * @param addedCommentMap 新增的敏感词及批注内容
+     * @param removedWords    删除的敏感词
+     * @return 是否替换成功, 版本不大于当前版本时返回false
+     * @throws IllegalArgumentException 词典未注册
+     * @throws IOException              当前版本被淘汰后重新加载异常或快照保存异常
+     */
+    public boolean update(String name, long version, Map<String, String> addedCommentMap, Collection<String> removedWords)
+            throws IOException {
+        while (true) {
+            Entry current = getEntry(name);
+            if (current.version >= version) {
+                return false;
+            }
+            CompiledDictionary updated = current.acquire().update(addedCommentMap, removedWords);
+            Entry entry;
+            if (snapshotDirectory == null) {
+                entry = new Entry(name, version, () -> updated, updated, false, null);
+            } else {
+                Path snapshot = Files.createDirectories(snapshotDirectory).resolve(name + "." + version + ".dict");
+                updated.writeTo(snapshot);
+                entry = new Entry(name, version, () -> CompiledDictionary.load(snapshot), updated, true, snapshot);
+            }
+            if (publish(entry, current)) {
+                return true;
+            }
+            // 更新期间当前版本已被替换, 删除本次的快照后在新的当前版本上重新应用
+            deleteSnapshot(entry);
+            log.debug("批注词典 {} 更新期间已被替换, 重新应用版本 {} 的变更", name, version);
+        }
+    }
+
+    /**
+     * 发布新版本
+     *
+     * @param entry    新版本
+     * @param expected 新版本所基于的版本, 只有其仍为当前版本时才替换; 为null时只要求新版本大于当前版本
+     * @return 是否替换成功
+     */
+    private boolean publish(Entry entry, Entry expected) {
+        Entry[] replaced = new Entry[1];
+        Entry published = entries.compute(entry.name, (key, old) -> {
+            boolean replace = expected == null ? old == null || old.version < entry.version : old == expected;
+            if (replace) {
+                replaced[0] = old;
+                return entry;
+            }
+            return old;
+        });
+        if (published != entry) {
+            return false;
+        }
+        log.info("批注词典 {} 已切换到版本 {}", entry.name, entry.version);
+        if (replaced[0] != null) {
+            deleteSnapshot(replaced[0]);
+        }
+        evictIfNecessary(entry);
+        return true;
+    }
+
+    /**
+     * 删除版本的快照文件, 已加载该快照的处理不受影响(内存映射在文件删除后仍有效)
+     */
+    private static void deleteSnapshot(Entry entry) {
+        if (entry.snapshot == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(entry.snapshot);
+        } catch (IOException e) {
+            log.warn("批注词典快照删除失败: {}", entry.snapshot, e);
+        }
+    }
+
+    /**
+     * 注销词典, 已取得该词典的处理不受影响
+     *
+     * @return 是否存在该词典
+     */
+    public boolean unregister(String name) {
+        Entry entry = entries.remove(name);
+        if (entry == null) {
+            return false;
+        }
+        deleteSnapshot(entry);
+        return true;
+    }
+
+    /**
+     * 获取词典的当前版本
+     *
+     * @param name 词典名称
+     * @return 编译后的词典
+     * @throws UnknownDictionaryException 词典未注册
+     * @throws IOException                被淘汰后重新加载异常
+     */
+    public CompiledDictionary get(String name) throws IOException {
+        return getEntry(name).acquire();
+    }
+
+    /**
+     * 获取词典的指定版本, 只有当前版本可用
+     *
+     * @throws IllegalArgumentException 词典未注册或当前版本不是指定版本
+     * @throws IOException              被淘汰后重新加载异常
+     */
+    public CompiledDictionary get(String name, long version) throws IOException {
+        Entry entry = getEntry(name);
+        if (entry.version != version) {
+            throw new IllegalArgumentException("批注词典 " + name + " 的当前版本为 " + entry.version + ", 不是 " + version);
+        }
+        return entry.acquire();
+    }
+
+    /**
+     * 获取词典的当前版本号
+     *
+     * @throws IllegalArgumentException 词典未注册
+     */
+    public long getVersion(String name) {
+        return getEntry(name).version;
+    }
+
+    /**
+     * 已注册的词典名称
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * 当前已加载词典的总大小(字节)
+     */
+    public long getLoadedBytes() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            CompiledDictionary dictionary = entry.dictionary;
+            if (dictionary != null) {
+                total += dictionary.getSizeInBytes();
+            }
+        }
+        return total;
+    }
+
+    private Entry getEntry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new UnknownDictionaryException(name);
+        }
+        return entry;
+    }
+
+    /**
+     * 超过内存预算时, 按最久未使用的顺序淘汰可淘汰的词典, 刚加载的词典不淘汰
+     */
+    private synchronized void evictIfNecessary(Entry loaded) {
+        long total = getLoadedBytes();
+        while (total > memoryBudget) {
+            Entry eldest = null;
+            for (Entry entry : entries.values()) {
+                if (entry == loaded || !entry.evictable || entry.dictionary == null) {
+                    continue;
+                }
+                if (eldest == null || entry.lastAccess < eldest.lastAccess) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            total -= eldest.evict();
+            log.info("批注词典 {} 版本 {} 超出内存预算被淘汰", eldest.name, eldest.version);
+        }
+    }
+
+    /**
+     * 某个名称的某个版本的词典
+     */
+    private final class Entry {
+        private final String name;
+        private final long version;
+        private final DictionaryLoader loader;
+        private final boolean evictable;
+        /**
+         * 增量更新保存的快照文件, 没有时为null
+         */
+        private final Path snapshot;
+        private volatile CompiledDictionary dictionary;
+        private volatile long lastAccess;
+        /**
+         * 淘汰的词典的命中次数统计, 重新加载后继续使用
+         */
+        private PatternHitCounter hitCounter;
+
+        private Entry(String name, long version, DictionaryLoader loader, CompiledDictionary dictionary, boolean evictable,
+                      Path snapshot) {
+            this.name = name;
+            this.version = version;
+            this.loader = loader;
+            this.dictionary = dictionary;
+            this.evictable = evictable;
+            this.snapshot = snapshot;
+            this.lastAccess = System.nanoTime();
+        }
+
+        private CompiledDictionary acquire() throws IOException {
+            lastAccess = System.nanoTime();
+            CompiledDictionary current = dictionary;
+            if (current != null) {
+                return current;
+            }
+            synchronized (this) {
+                current = dictionary;
+                if (current == null) {
+                    current = loader.load();
+                    if (hitCounter != null) {
+                        current = current.withHitCounter(hitCounter);
+                    }
+                    dictionary = current;
+                    log.info("批注词典 {} 版本 {} 已重新加载", name, version);
+                } else {
+                    return current;
+                }
+            }
+            evictIfNecessary(this);
+            return current;
+        }
+
+        private synchronized long evict() {
+            CompiledDictionary current = dictionary;
+            dictionary = null;
+            if (current == null) {
+                return 0;
+            }
+            if (current.getHitCounter() != null) {
+                hitCounter = current.getHitCounter();
+            }
+            return current.getSizeInBytes();
+        }
+    }
+}
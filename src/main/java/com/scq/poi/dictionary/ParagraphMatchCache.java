@@ -0,0 +1,187 @@
+package com.scq.poi.dictionary;
+
+import com.scq.poi.algorithm.AcHitBuffer;
+import com.scq.poi.algorithm.PatternHitCounter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 跨文档的段落匹配结果缓存: 按词典指纹和段落文本缓存命中结果(LRU), 模板条款等重复出现的段落不再重复匹配, 线程安全
+ * <p>
+ * key为词典指纹及段落文本, 先比较文本的哈希值再比较文本本身, 哈希冲突不会返回错误的结果; 词典更新后指纹不同, 旧结果不再命中并逐渐被淘汰。
+ * 缓存分为多个分段, 每个分段单独加锁和淘汰, 并行匹配时竞争较小。
+ * 只缓存长度在范围内的段落: 过短的段落匹配很快, 过长的段落占用内存较多且很少重复。
+ * 缓存命中时按命中结果累加词典的敏感词命中次数, 与实际匹配的统计相同。
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 15:20
+ */
+public class ParagraphMatchCache {
+
+    private static final int SEGMENTS = 16;
+    private static final int DEFAULT_MIN_TEXT_LENGTH = 16;
+    private static final int DEFAULT_MAX_TEXT_LENGTH = 4096;
+    /**
+     * 没有命中的段落的缓存结果
+     */
+    private static final AcHitBuffer NO_HITS = new AcHitBuffer(0);
+
+    private final Map<Key, AcHitBuffer>[] segments;
+    private final int minTextLength;
+    private final int maxTextLength;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param maxEntries 缓存的段落数量上限
+     */
+    public ParagraphMatchCache(int maxEntries) {
+        this(maxEntries, DEFAULT_MIN_TEXT_LENGTH, DEFAULT_MAX_TEXT_LENGTH);
+    }
+
+    /**
+     * @param maxEntries    缓存的段落数量上限
+     * @param minTextLength 缓存的段落文本的最小长度
+     * @param maxTextLength 缓存的段落文本的最大长度
+     */
+    @SuppressWarnings("unchecked")
+    public ParagraphMatchCache(int maxEntries, int minTextLength, int maxTextLength) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("缓存数量必须大于0");
+        }
+        this.minTextLength = minTextLength;
+        this.maxTextLength = maxTextLength;
+        int segmentSize = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        this.segments = new Map[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new LinkedHashMap<Key, AcHitBuffer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, AcHitBuffer> eldest) {
+                    return size() > segmentSize;
+                }
+            };
+        }
+    }
+
+    /**
+     * 匹配段落文本的敏感词, 缓存命中时直接返回缓存的结果
+     *
+     * @param dictionary 编译后的批注词典
+     * @param text       段落文本
+     * @param buffer     未命中缓存时保存匹配结果的结果集
+     * @return 命中结果, 缓存命中时为缓存中的结果, 多个线程共用, 不能修改; 否则为 buffer
+     */
+    public AcHitBuffer match(CompiledDictionary dictionary, String text, AcHitBuffer buffer) {
+        if (text.length() < minTextLength || text.length() > maxTextLength) {
+            return dictionary.getMatcher().match(text, buffer);
+        }
+        Key key = new Key(dictionary.getFingerprint(), text);
+        Map<Key, AcHitBuffer> segment = segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENTS - 1)];
+        AcHitBuffer cached;
+        synchronized (segment) {
+            cached = segment.get(key);
+        }
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            countHits(dictionary.getHitCounter(), cached);
+            return cached;
+        }
+        missCount.incrementAndGet();
+        dictionary.getMatcher().match(text, buffer);
+        AcHitBuffer result = buffer.size() == 0 ? NO_HITS : buffer.copy();
+        synchronized (segment) {
+            segment.put(key, result);
+        }
+        return buffer;
+    }
+
+    private static void countHits(PatternHitCounter hitCounter, AcHitBuffer hits) {
+        if (hitCounter == null) {
+            return;
+        }
+        for (int i = 0; i < hits.size(); i++) {
+            hitCounter.increment(hits.getPatternId(i));
+        }
+    }
+
+    /**
+     * 命中缓存的段落数
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * 未命中缓存的段落数, 不包括长度不在缓存范围内的段落
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 缓存命中率, 没有查询过时为0
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 当前缓存的段落数
+     */
+    public int size() {
+        int size = 0;
+        for (Map<Key, AcHitBuffer> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 清空缓存, 不清空命中统计
+     */
+    public void clear() {
+        for (Map<Key, AcHitBuffer> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * 缓存的key: 词典指纹及段落文本, 哈希值创建时计算
+     */
+    private static final class Key {
+        private final String fingerprint;
+        private final String text;
+        private final int hash;
+
+        private Key(String fingerprint, String text) {
+            this.fingerprint = fingerprint;
+            this.text = text;
+            this.hash = fingerprint.hashCode() * 31 + text.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && text.equals(other.text) && fingerprint.equals(other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
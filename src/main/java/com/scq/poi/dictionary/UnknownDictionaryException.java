@@ -0,0 +1,14 @@
+package com.scq.poi.dictionary;
+
+/**
+ * 批注词典未注册
+ *
+ * @author by suchangqin
+ * @date 2023/9/11 10:05
+ */
+public class UnknownDictionaryException extends IllegalArgumentException {
+
+    public UnknownDictionaryException(String name) {
+        super("批注词典未注册: " + name);
+    }
+}
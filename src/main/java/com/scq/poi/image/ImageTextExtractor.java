@@ -0,0 +1,23 @@
+package com.scq.poi.image;
+
+import java.io.IOException;
+
+/**
+ * 图片文本提取(如OCR), 在 {@link ImageTextStage} 的线程池中调用, 实现需要线程安全
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 10:00
+ */
+@FunctionalInterface
+public interface ImageTextExtractor {
+
+    /**
+     * 提取图片中的文本
+     *
+     * @param data        图片数据
+     * @param contentType 图片的内容类型, 如 image/png
+     * @return 图片中的文本, 没有文本时返回空字符串
+     * @throws IOException 提取异常, 该图片不批注, 文档继续处理
+     */
+    String extract(byte[] data, String contentType) throws IOException;
+}
@@ -0,0 +1,135 @@
+package com.scq.poi.image;
+
+import com.scq.poi.utils.DigestUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片文本提取阶段: 在独立的有界线程池中调用 {@link ImageTextExtractor}, 与文档的文本匹配并行执行,
+ * 可被多个文档共用
+ * <p>
+ * 提取结果按图片内容的SHA-256摘要缓存(LRU), 重复出现的图片(如logo、印章)只提取一次, 正在提取的相同图片共用同一个结果;
+ * 提取失败的结果不缓存。线程池的队列满时由提交的线程直接提取。
+ * 目前只有 {@link com.scq.poi.DocxDocument#setImageTextStage(ImageTextStage)} 使用, 流式处理及批注服务不处理图片。
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 10:10
+ */
+@Slf4j
+public class ImageTextStage implements AutoCloseable {
+
+    private final ImageTextExtractor extractor;
+    private final ThreadPoolExecutor executor;
+    /**
+     * 按访问顺序淘汰的提取结果, 访问时加锁
+     */
+    private final Map<String, CompletableFuture<String>> cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param extractor     图片文本提取实现
+     * @param threads       提取线程数
+     * @param queueCapacity 等待提取的图片数上限
+     * @param cacheSize     缓存的图片数量上限
+     */
+    public ImageTextStage(ImageTextExtractor extractor, int threads, int queueCapacity, int cacheSize) {
+        if (threads <= 0 || queueCapacity <= 0 || cacheSize <= 0) {
+            throw new IllegalArgumentException("线程数、队列容量和缓存数量必须大于0");
+        }
+        this.extractor = extractor;
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "docx-image-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.cache = new LinkedHashMap<String, CompletableFuture<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<String>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * 提交图片, 异步提取文本, 图片数据需在调用线程中读取完成
+     *
+     * @param data        图片数据
+     * @param contentType 图片的内容类型
+     * @return 图片中的文本, 提取失败时异常完成
+     */
+    public CompletableFuture<String> extract(byte[] data, String contentType) {
+        String key = digest(data);
+        CompletableFuture<String> future;
+        synchronized (cache) {
+            future = cache.get(key);
+            if (future != null) {
+                hitCount.incrementAndGet();
+                return future;
+            }
+            future = new CompletableFuture<>();
+            cache.put(key, future);
+        }
+        missCount.incrementAndGet();
+        CompletableFuture<String> result = future;
+        try {
+            executor.execute(() -> {
+                try {
+                    String text = extractor.extract(data, contentType);
+                    result.complete(text == null ? "" : text);
+                } catch (Exception e) {
+                    fail(key, result, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭
+            fail(key, result, e);
+        }
+        return result;
+    }
+
+    /**
+     * 提取失败: 从缓存中删除, 之后相同的图片重新提取
+     */
+    private void fail(String key, CompletableFuture<String> future, Exception e) {
+        synchronized (cache) {
+            cache.remove(key, future);
+        }
+        future.completeExceptionally(e);
+    }
+
+    /**
+     * 图片内容的摘要(十六进制SHA-256), 作为缓存的key
+     */
+    public static String digest(byte[] data) {
+        return DigestUtils.sha256Hex(data);
+    }
+
+    /**
+     * 命中缓存(包括正在提取)的图片数
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * 实际提取的图片数
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
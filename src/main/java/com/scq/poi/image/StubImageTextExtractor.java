@@ -0,0 +1,50 @@
+package com.scq.poi.image;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地桩实现, 按图片内容的摘要返回预设的文本, 用于单元测试和没有OCR服务的环境, 见 ImageTextStageTest
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 10:05
+ */
+public class StubImageTextExtractor implements ImageTextExtractor {
+
+    /**
+     * key: 图片内容的摘要, 见 {@link ImageTextStage#digest(byte[])}, value: 图片的文本
+     */
+    private final Map<String, String> textByDigest;
+    private final String defaultText;
+    private final AtomicInteger callCount = new AtomicInteger();
+
+    /**
+     * 所有图片都返回空文本
+     */
+    public StubImageTextExtractor() {
+        this(new HashMap<>(0), "");
+    }
+
+    /**
+     * @param textByDigest 图片内容摘要对应的文本
+     * @param defaultText  没有预设文本的图片返回的文本
+     */
+    public StubImageTextExtractor(Map<String, String> textByDigest, String defaultText) {
+        this.textByDigest = textByDigest;
+        this.defaultText = defaultText;
+    }
+
+    @Override
+    public String extract(byte[] data, String contentType) {
+        callCount.incrementAndGet();
+        return textByDigest.getOrDefault(ImageTextStage.digest(data), defaultText);
+    }
+
+    /**
+     * 实际提取的次数, 命中缓存的图片不计入
+     */
+    public int getCallCount() {
+        return callCount.get();
+    }
+}
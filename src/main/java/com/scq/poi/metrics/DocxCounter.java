@@ -0,0 +1,48 @@
+package com.scq.poi.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 文档批注处理的计数
+ *
+ * @author by suchangqin
+ * @date 2023/9/5 10:15
+ */
+@Getter
+@AllArgsConstructor
+public enum DocxCounter {
+    /**
+     * 处理的段落数
+     */
+    PARAGRAPHS("paragraphs"),
+    /**
+     * 处理的有文本的run数
+     */
+    RUNS("runs"),
+    /**
+     * 敏感词命中数
+     */
+    HITS("hits"),
+    /**
+     * 切割run新增的run数
+     */
+    SPLITS("splits"),
+    /**
+     * 删除的已有批注数
+     */
+    COMMENTS_REMOVED("comments.removed"),
+    /**
+     * 新增的批注数
+     */
+    COMMENTS_ADDED("comments.added"),
+    /**
+     * 提交提取文本的图片数
+     */
+    IMAGES("images");
+
+    /**
+     * 指标名称的后缀
+     */
+    private final String suffix;
+}
@@ -0,0 +1,39 @@
+package com.scq.poi.metrics;
+
+/**
+ * 文档批注处理的指标记录, 实现需要线程安全, 多个文档可共用同一个实例
+ *
+ * @author by suchangqin
+ * @date 2023/9/5 10:20
+ */
+public interface DocxMetrics {
+
+    /**
+     * 不记录指标
+     */
+    DocxMetrics NOOP = new DocxMetrics() {
+        @Override
+        public void recordPhase(DocxPhase phase, long nanos) {
+        }
+
+        @Override
+        public void increment(DocxCounter counter, long amount) {
+        }
+    };
+
+    /**
+     * 记录一个阶段的耗时
+     *
+     * @param phase 阶段
+     * @param nanos 耗时(纳秒)
+     */
+    void recordPhase(DocxPhase phase, long nanos);
+
+    /**
+     * 增加计数
+     *
+     * @param counter 计数项
+     * @param amount  增加的数量
+     */
+    void increment(DocxCounter counter, long amount);
+}
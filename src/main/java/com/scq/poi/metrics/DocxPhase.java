@@ -0,0 +1,48 @@
+package com.scq.poi.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 文档批注处理的阶段
+ *
+ * @author by suchangqin
+ * @date 2023/9/5 10:10
+ */
+@Getter
+@AllArgsConstructor
+public enum DocxPhase {
+    /**
+     * 读取并解析docx文档
+     */
+    PARSE("parse"),
+    /**
+     * 删除当前作者的已有批注
+     */
+    CLEAR_COMMENT("clear_comment"),
+    /**
+     * 删除已删除批注的范围标签和引用
+     */
+    CLEAR_MARKUP("clear_markup"),
+    /**
+     * 提取段落文本并匹配敏感词
+     */
+    MATCH("match"),
+    /**
+     * 创建批注、切割run、设置范围标签和引用
+     */
+    APPLY("apply"),
+    /**
+     * 保存批注内容
+     */
+    COMMIT("commit"),
+    /**
+     * 写出处理后的文档, 包括保存批注
+     */
+    WRITE("write");
+
+    /**
+     * 指标的标签值
+     */
+    private final String tag;
+}
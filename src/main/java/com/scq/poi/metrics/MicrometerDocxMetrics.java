@@ -0,0 +1,53 @@
+package com.scq.poi.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 使用Micrometer记录文档批注处理的指标, 指标在创建时全部注册, 记录时不再查找
+ * <p>
+ * 指标: docx.annotate.phase (计时, 标签phase为 {@link DocxPhase#getTag()}),
+ * docx.annotate.{@link DocxCounter#getSuffix()} (计数)
+ *
+ * @author by suchangqin
+ * @date 2023/9/5 10:30
+ */
+public class MicrometerDocxMetrics implements DocxMetrics {
+
+    public static final String PREFIX = "docx.annotate";
+
+    private final Timer[] timers;
+    private final Counter[] counters;
+
+    public MicrometerDocxMetrics(MeterRegistry registry) {
+        DocxPhase[] phases = DocxPhase.values();
+        timers = new Timer[phases.length];
+        for (DocxPhase phase : phases) {
+            timers[phase.ordinal()] = Timer.builder(PREFIX + ".phase")
+                    .description("文档批注处理各阶段的耗时")
+                    .tag("phase", phase.getTag())
+                    .register(registry);
+        }
+        DocxCounter[] values = DocxCounter.values();
+        counters = new Counter[values.length];
+        for (DocxCounter counter : values) {
+            counters[counter.ordinal()] = Counter.builder(PREFIX + "." + counter.getSuffix())
+                    .register(registry);
+        }
+    }
+
+    @Override
+    public void recordPhase(DocxPhase phase, long nanos) {
+        timers[phase.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void increment(DocxCounter counter, long amount) {
+        if (amount > 0) {
+            counters[counter.ordinal()].increment(amount);
+        }
+    }
+}
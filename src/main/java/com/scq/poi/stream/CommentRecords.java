@@ -0,0 +1,48 @@
+package com.scq.poi.stream;
+
+import java.util.Arrays;
+
+/**
+ * 流式处理中新增的批注, 只保存批注ID对应的敏感词ID, 批注内容在写出comments.xml时再从词典获取
+ *
+ * @author by suchangqin
+ * @date 2023/8/30 14:20
+ */
+final class CommentRecords {
+
+    /**
+     * 第一个新增批注的ID, 之后依次加一
+     */
+    private final long firstId;
+    private int[] patternIds = new int[64];
+    private int size;
+
+    CommentRecords(long firstId) {
+        this.firstId = firstId;
+    }
+
+    /**
+     * 新增批注
+     *
+     * @return 新增的批注ID
+     */
+    long add(int patternId) {
+        if (size == patternIds.length) {
+            patternIds = Arrays.copyOf(patternIds, size * 2);
+        }
+        patternIds[size] = patternId;
+        return firstId + size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getId(int i) {
+        return firstId + i;
+    }
+
+    int getPatternId(int i) {
+        return patternIds[i];
+    }
+}
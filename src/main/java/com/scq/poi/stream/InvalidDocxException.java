@@ -0,0 +1,20 @@
+package com.scq.poi.stream;
+
+import java.io.IOException;
+
+/**
+ * 文档不是有效的docx文档: zip格式错误、没有正文或xml无法解析, 重试也会同样失败
+ *
+ * @author by suchangqin
+ * @date 2023/9/11 15:20
+ */
+public class InvalidDocxException extends IOException {
+
+    public InvalidDocxException(String message) {
+        super(message);
+    }
+
+    public InvalidDocxException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
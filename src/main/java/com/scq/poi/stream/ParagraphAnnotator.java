@@ -0,0 +1,386 @@
+package com.scq.poi.stream;
+
+import com.scq.poi.algorithm.AcHitBuffer;
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.dictionary.ParagraphMatchCache;
+import com.scq.poi.utils.CommentXmlWriter;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.scq.poi.utils.CommentXmlWriter.W_NS;
+
+/**
+ * 对一个段落的xml事件进行批注, 与 {@link com.scq.poi.DocxDocument} 的处理方式相同:
+ * 在敏感词的首尾位置分割run(复制run的样式), 在敏感词的首个run前插入批注范围的开始标签,
+ * 在最后一个run后插入结束标签和批注引用
+ * <p>
+ * 段落的run只包含段落直属的run(包括超链接、修订插入等标签下的run), 不包括修订删除的run和文本框中的段落,
+ * run的文本为其直属的 &lt;w:t&gt; 的文本, 制表符和换行分别作为 '\t' 和 '\n'。
+ *
+ * @author by suchangqin
+ * @date 2023/8/30 14:35
+ */
+final class ParagraphAnnotator {
+
+    private final CompiledDictionary dictionary;
+    private final ParagraphMatchCache matchCache;
+    private final CommentRecords records;
+    /**
+     * 以下结果集处理每个段落时复用
+     */
+    private final AcHitBuffer buffer = new AcHitBuffer();
+    private final StringBuilder text = new StringBuilder(256);
+    /**
+     * 第k个run的开始标签、样式之后第一个事件、结束标签在段落事件中的下标, 以及run的文本在段落文本中的范围
+     */
+    private int[] runStart = new int[16];
+    private int[] runContent = new int[16];
+    private int[] runEnd = new int[16];
+    private int[] runTextStart = new int[16];
+    private int[] runTextEnd = new int[16];
+    private int runCount;
+    /**
+     * 每次命中的批注ID, 按开始位置排序的命中顺序, 所有需要分割run的位置
+     */
+    private long[] commentIds = new long[16];
+    private Integer[] startOrder = new Integer[16];
+    private int[] cuts = new int[32];
+    private int cutCount;
+    private int nextStart;
+    private int nextEnd;
+    private String prefix;
+    /**
+     * 当前段落的命中结果, 为 {@link #buffer} 或缓存中的结果(只读)
+     */
+    private AcHitBuffer hits;
+    /**
+     * 累计处理的有文本的run数, 切割run新增的run数
+     */
+    private long textRunCount;
+    private long splitCount;
+
+    /**
+     * @param dictionary 编译后的批注词典
+     * @param matchCache 段落匹配结果缓存, 为null时每个段落都匹配
+     * @param records    本次新增的批注
+     */
+    ParagraphAnnotator(CompiledDictionary dictionary, ParagraphMatchCache matchCache, CommentRecords records) {
+        this.dictionary = dictionary;
+        this.matchCache = matchCache;
+        this.records = records;
+    }
+
+    /**
+     * 提取段落的run及文本并匹配敏感词, 之后以 {@link #write(List, XMLEventWriter)} 写出同一个段落
+     *
+     * @param events 段落的全部事件, 从 &lt;w:p&gt; 到 &lt;/w:p&gt;
+     * @return 命中数量
+     */
+    int match(List<XMLEvent> events) {
+        scanRuns(events);
+        hits = matchCache == null ? dictionary.getMatcher().match(text, buffer)
+                : matchCache.match(dictionary, text.toString(), buffer);
+        return hits.size();
+    }
+
+    /**
+     * 批注 {@link #match(List)} 匹配过的段落并写出
+     *
+     * @param events 段落的全部事件, 从 &lt;w:p&gt; 到 &lt;/w:p&gt;
+     * @param writer 输出
+     */
+    void write(List<XMLEvent> events, XMLEventWriter writer) throws XMLStreamException {
+        if (hits.size() == 0) {
+            for (XMLEvent event : events) {
+                writer.add(event);
+            }
+            return;
+        }
+        prefix = events.get(0).asStartElement().getName().getPrefix();
+        prepareHits();
+
+        int run = 0;
+        for (int i = 0; i < events.size(); i++) {
+            if (run < runCount && i == runStart[run]) {
+                writeRun(events, run, writer);
+                i = runEnd[run++];
+            } else {
+                writer.add(events.get(i));
+            }
+        }
+    }
+
+    /**
+     * 记录段落中的run及段落文本
+     */
+    private void scanRuns(List<XMLEvent> events) {
+        text.setLength(0);
+        runCount = 0;
+        // 文本框中的段落层级, 修订删除的层级, 当前run内的层级
+        int nested = 0;
+        int deleted = 0;
+        int depth = 0;
+        int current = -1;
+        boolean inText = false;
+        for (int i = 1; i < events.size() - 1; i++) {
+            XMLEvent event = events.get(i);
+            if (event.isStartElement()) {
+                String name = localName(event.asStartElement().getName());
+                if (current != -1) {
+                    depth++;
+                    if (depth == 1 && "t".equals(name)) {
+                        inText = true;
+                    } else if (depth == 1) {
+                        appendSpecial(name);
+                    }
+                } else if ("p".equals(name)) {
+                    nested++;
+                } else if ("del".equals(name)) {
+                    deleted++;
+                } else if ("r".equals(name) && nested == 0 && deleted == 0) {
+                    current = addRun(i);
+                    depth = 0;
+                }
+            } else if (event.isEndElement()) {
+                String name = localName(event.asEndElement().getName());
+                if (current != -1) {
+                    if (depth == 0) {
+                        runEnd[current] = i;
+                        runTextEnd[current] = text.length();
+                        if (runTextEnd[current] > runTextStart[current]) {
+                            textRunCount++;
+                        }
+                        current = -1;
+                        continue;
+                    }
+                    if (depth == 1 && "rPr".equals(name)) {
+                        runContent[current] = i + 1;
+                    }
+                    inText = false;
+                    depth--;
+                } else if ("p".equals(name)) {
+                    nested--;
+                } else if ("del".equals(name)) {
+                    deleted--;
+                }
+            } else if (inText && event.isCharacters()) {
+                text.append(event.asCharacters().getData());
+            }
+        }
+    }
+
+    /**
+     * 与 XWPFRun#text() 相同, 制表符和换行也作为文本
+     */
+    private void appendSpecial(String name) {
+        char c = specialChar(name);
+        if (c != 0) {
+            text.append(c);
+        }
+    }
+
+    private static char specialChar(String name) {
+        switch (name) {
+            case "tab":
+                return '\t';
+            case "br":
+            case "cr":
+                return '\n';
+            default:
+                return 0;
+        }
+    }
+
+    private int addRun(int index) {
+        if (runCount == runStart.length) {
+            int capacity = runCount * 2;
+            runStart = Arrays.copyOf(runStart, capacity);
+            runContent = Arrays.copyOf(runContent, capacity);
+            runEnd = Arrays.copyOf(runEnd, capacity);
+            runTextStart = Arrays.copyOf(runTextStart, capacity);
+            runTextEnd = Arrays.copyOf(runTextEnd, capacity);
+        }
+        runStart[runCount] = index;
+        runContent[runCount] = index + 1;
+        runTextStart[runCount] = text.length();
+        return runCount++;
+    }
+
+    /**
+     * 创建批注, 记录所有需要分割run的位置
+     */
+    private void prepareHits() {
+        int size = hits.size();
+        if (commentIds.length < size) {
+            commentIds = new long[size * 2];
+            startOrder = new Integer[size * 2];
+        }
+        if (cuts.length < size * 2) {
+            cuts = new int[size * 4];
+        }
+        for (int hit = 0; hit < size; hit++) {
+            commentIds[hit] = records.add(hits.getPatternId(hit));
+            startOrder[hit] = hit;
+            cuts[hit * 2] = hits.getStart(hit);
+            cuts[hit * 2 + 1] = hits.getEnd(hit);
+        }
+        // 同一开始位置的, 范围大的先开始
+        Arrays.sort(startOrder, 0, size, (a, b) -> hits.getStart(a) != hits.getStart(b)
+                ? Integer.compare(hits.getStart(a), hits.getStart(b))
+                : Integer.compare(hits.getEnd(b), hits.getEnd(a)));
+        Arrays.sort(cuts, 0, size * 2);
+        cutCount = 0;
+        for (int i = 0; i < size * 2; i++) {
+            if (cutCount == 0 || cuts[cutCount - 1] != cuts[i]) {
+                cuts[cutCount++] = cuts[i];
+            }
+        }
+        nextStart = 0;
+        nextEnd = 0;
+    }
+
+    /**
+     * 在分割位置将run拆分为多个run写出, 并在对应位置写出批注的范围标签和引用
+     */
+    private void writeRun(List<XMLEvent> events, int run, XMLEventWriter writer) throws XMLStreamException {
+        int textStart = runTextStart[run];
+        int textEnd = runTextEnd[run];
+        if (textStart == textEnd) {
+            copy(events, runStart[run], runEnd[run], writer);
+            return;
+        }
+        int cut = Arrays.binarySearch(cuts, 0, cutCount, textStart + 1);
+        cut = cut < 0 ? -cut - 1 : cut;
+        if (cut == cutCount || cuts[cut] >= textEnd) {
+            // 不需要分割
+            writeRangeStart(textStart, writer);
+            copy(events, runStart[run], runEnd[run], writer);
+            writeRangeEnd(textEnd, writer);
+            return;
+        }
+        int segmentStart = textStart;
+        splitCount--;
+        while (segmentStart < textEnd) {
+            splitCount++;
+            int segmentEnd = cut < cutCount && cuts[cut] < textEnd ? cuts[cut++] : textEnd;
+            writeRangeStart(segmentStart, writer);
+            writeSegment(events, run, segmentStart, segmentEnd, writer);
+            writeRangeEnd(segmentEnd, writer);
+            segmentStart = segmentEnd;
+        }
+    }
+
+    /**
+     * 写出run中文本范围为 [segmentStart, segmentEnd) 的部分, 样式不变;
+     * 非文本的内容(制表符、图片等)写在其所在位置的部分中, 位于run末尾的写在最后一部分中
+     */
+    private void writeSegment(List<XMLEvent> events, int run, int segmentStart, int segmentEnd, XMLEventWriter writer)
+            throws XMLStreamException {
+        copy(events, runStart[run], runContent[run] - 1, writer);
+        boolean last = segmentEnd == runTextEnd[run];
+        int position = runTextStart[run];
+        int i = runContent[run];
+        while (i < runEnd[run]) {
+            XMLEvent event = events.get(i);
+            if (!event.isStartElement()) {
+                if (owns(position, segmentStart, segmentEnd, last)) {
+                    writer.add(event);
+                }
+                i++;
+                continue;
+            }
+            int end = findEnd(events, i);
+            String name = localName(event.asStartElement().getName());
+            if (specialChar(name) != 0) {
+                if (position >= segmentStart && position < segmentEnd) {
+                    copy(events, i, end, writer);
+                }
+                position++;
+            } else if ("t".equals(name)) {
+                String value = collectText(events, i, end);
+                int from = Math.max(segmentStart, position);
+                int to = Math.min(segmentEnd, position + value.length());
+                if (from < to) {
+                    CommentXmlWriter.writeText(writer, prefix, value.substring(from - position, to - position));
+                }
+                position += value.length();
+            } else if (owns(position, segmentStart, segmentEnd, last)) {
+                copy(events, i, end, writer);
+            }
+            i = end + 1;
+        }
+        writer.add(events.get(runEnd[run]));
+    }
+
+    long getTextRunCount() {
+        return textRunCount;
+    }
+
+    long getSplitCount() {
+        return splitCount;
+    }
+
+    private static boolean owns(int position, int segmentStart, int segmentEnd, boolean last) {
+        return position >= segmentStart && (position < segmentEnd || last);
+    }
+
+    /**
+     * 写出在该位置开始的批注的范围开始标签
+     */
+    private void writeRangeStart(int position, XMLEventWriter writer) throws XMLStreamException {
+        while (nextStart < hits.size() && hits.getStart(startOrder[nextStart]) == position) {
+            CommentXmlWriter.writeRange(writer, prefix, commentIds[startOrder[nextStart++]], true);
+        }
+    }
+
+    /**
+     * 写出在该位置结束的批注的范围结束标签和批注引用
+     */
+    private void writeRangeEnd(int position, XMLEventWriter writer) throws XMLStreamException {
+        while (nextEnd < hits.size() && hits.getEnd(nextEnd) == position) {
+            long commentId = commentIds[nextEnd++];
+            CommentXmlWriter.writeRange(writer, prefix, commentId, false);
+            CommentXmlWriter.writeReferenceRun(writer, prefix, commentId);
+        }
+    }
+
+    private static int findEnd(List<XMLEvent> events, int start) {
+        int depth = 0;
+        for (int i = start; ; i++) {
+            XMLEvent event = events.get(i);
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement() && --depth == 0) {
+                return i;
+            }
+        }
+    }
+
+    private static String collectText(List<XMLEvent> events, int start, int end) {
+        if (end == start + 2 && events.get(start + 1).isCharacters()) {
+            return events.get(start + 1).asCharacters().getData();
+        }
+        StringBuilder value = new StringBuilder();
+        for (int i = start + 1; i < end; i++) {
+            if (events.get(i).isCharacters()) {
+                value.append(events.get(i).asCharacters().getData());
+            }
+        }
+        return value.toString();
+    }
+
+    private static void copy(List<XMLEvent> events, int from, int to, XMLEventWriter writer) throws XMLStreamException {
+        for (int i = from; i <= to; i++) {
+            writer.add(events.get(i));
+        }
+    }
+
+    private static String localName(QName name) {
+        return W_NS.equals(name.getNamespaceURI()) ? name.getLocalPart() : "";
+    }
+}
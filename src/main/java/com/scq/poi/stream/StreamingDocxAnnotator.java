@@ -0,0 +1,571 @@
+package com.scq.poi.stream;
+
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.dictionary.ParagraphMatchCache;
+import com.scq.poi.metrics.DocxCounter;
+import com.scq.poi.metrics.DocxMetrics;
+import com.scq.poi.metrics.DocxPhase;
+import com.scq.poi.utils.CommentXmlWriter;
+import com.scq.poi.utils.LongHashSet;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.*;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static com.scq.poi.utils.CommentXmlWriter.*;
+
+/**
+ * 流式的docx文档批注处理, 不创建 XWPFDocument, 段落的批注方式与 {@link com.scq.poi.DocxDocument} 相同
+ * <p>
+ * 以StAX逐个事件读取正文、页眉、页脚、脚注和尾注, 每次只缓存一个段落的事件, 处理后直接写入输出的zip,
+ * 新增的批注只记录批注ID和敏感词ID, 内存占用与文档大小无关。
+ * 处理顺序: 先读取 comments.xml 获取要删除的批注和最大批注ID, 再按zip中的顺序处理各部件(删除已删除批注的标签并批注), 最后写出 comments.xml,
+ * 文档原本没有批注时新建 comments.xml 并增加关系和内容类型, 批注关系指向的部件不存在时在该位置新建。
+ * <p>
+ * 与 {@link com.scq.poi.DocxDocument} 的区别: 文本框中的段落不批注; 部件按zip中的顺序处理, 批注ID的顺序可能不同。
+ * <p>
+ * 处理指标与 {@link com.scq.poi.DocxDocument} 相同, 各阶段交替进行, 匹配、批注和删除标签的耗时按段落累计,
+ * 写出(write)为其余的解压、复制和压缩耗时。
+ *
+ * @author by suchangqin
+ * @date 2023/8/30 15:10
+ */
+@Slf4j
+public class StreamingDocxAnnotator {
+
+    private static final String CONTENT_TYPES = "[Content_Types].xml";
+    private static final String PACKAGE_RELS = "_rels/.rels";
+    private static final String CONTENT_TYPES_NS = "http://schemas.openxmlformats.org/package/2006/content-types";
+    private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String OFFICE_DOCUMENT_RELATION = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument";
+    private static final String COMMENTS_RELATION = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/comments";
+    /**
+     * 正文以外包含文本的部件的关系: 页眉、页脚、脚注、尾注
+     */
+    private static final Set<String> TEXT_PART_RELATIONS = new HashSet<>(Arrays.asList(
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships/header",
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships/footer",
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships/footnotes",
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships/endnotes"));
+    private static final String WORD_COMMENTS_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.comments+xml";
+    private static final String DEFAULT_COMMENTS_NAME = "comments.xml";
+
+    private static final XMLEventFactory EVENTS = XMLEventFactory.newInstance();
+
+    /**
+     * 编译后的批注词典, 可被多个文档共享
+     */
+    private final CompiledDictionary dictionary;
+    private final XMLInputFactory inputFactory;
+    private final XMLOutputFactory outputFactory;
+    private String author = "robot";
+    /**
+     * 跨文档的段落匹配结果缓存, 为null时每个段落都匹配
+     */
+    private ParagraphMatchCache matchCache;
+    /**
+     * 处理指标, 可被多个文档共用
+     */
+    private DocxMetrics metrics = DocxMetrics.NOOP;
+
+    public StreamingDocxAnnotator(CompiledDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.outputFactory = XMLOutputFactory.newInstance();
+    }
+
+    /**
+     * 设置本次处理批注作者的内容,
+     * 用于删除文档批注内容的作者为该值的批注 , 新生成的批注的作者名也为该值
+     *
+     * @param author 批注作者名
+     */
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    /**
+     * 设置段落匹配结果缓存, 设置后与之前处理过的文档相同的段落直接使用缓存的命中结果
+     *
+     * @param matchCache 段落匹配结果缓存, 可被多个文档共用
+     */
+    public void setMatchCache(ParagraphMatchCache matchCache) {
+        this.matchCache = matchCache;
+    }
+
+    /**
+     * 设置处理指标, 见 {@link com.scq.poi.metrics.MicrometerDocxMetrics}
+     *
+     * @param metrics 处理指标, 为null时不记录
+     */
+    public void setMetrics(DocxMetrics metrics) {
+        this.metrics = metrics == null ? DocxMetrics.NOOP : metrics;
+    }
+
+    /**
+     * 对文档增加指定批注, 并保存到目标文件
+     *
+     * @param source docx文档文件路径
+     * @param target 处理后的文档保存路径
+     * @return 新增的批注数量
+     */
+    public int execute(Path source, Path target) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+            return execute(source, out);
+        }
+    }
+
+    /**
+     * 对文档增加指定批注, 处理后的文档写入输出流, 输出流不会被关闭
+     *
+     * @param source docx文档文件路径
+     * @param output 处理后的文档的输出流
+     * @return 新增的批注数量
+     * @throws InvalidDocxException 不是有效的docx文档
+     * @throws IOException          读写异常
+     */
+    public int execute(Path source, OutputStream output) throws IOException {
+        long begin = System.nanoTime();
+        try (ZipFile zip = new ZipFile(source.toFile())) {
+            Annotation annotation = new Annotation(zip);
+            metrics.recordPhase(DocxPhase.PARSE, System.nanoTime() - begin);
+            return annotation.write(output);
+        } catch (XMLStreamException e) {
+            throw new InvalidDocxException("docx文档的xml解析异常: " + source, e);
+        } catch (ZipException e) {
+            throw new InvalidDocxException("docx文档的zip格式错误: " + source, e);
+        }
+    }
+
+    /**
+     * 一次文档处理的状态
+     */
+    private final class Annotation {
+        private final ZipFile zip;
+        private final String documentPart;
+        private final String documentRels;
+        private final String commentsPart;
+        /**
+         * 正文以外包含文本的部件在zip中的名称
+         */
+        private final Set<String> textParts;
+        /**
+         * 文档原本没有批注或批注关系指向的部件不存在, 需要新建 comments.xml 并确保有其内容类型
+         */
+        private final boolean commentsCreated;
+        /**
+         * 正文没有批注关系, 需要增加
+         */
+        private final boolean relationCreated;
+        private final LongHashSet clearCommentIds = new LongHashSet();
+        private long maxCommentId;
+        private CommentRecords records;
+        /**
+         * 按段落累计的指标
+         */
+        private long clearMarkupNanos;
+        private long matchNanos;
+        private long applyNanos;
+        private long paragraphCount;
+        private long runCount;
+        private long hitCount;
+        private long splitCount;
+
+        private Annotation(ZipFile zip) throws IOException, XMLStreamException {
+            this.zip = zip;
+            String document = findRelationship(PACKAGE_RELS, "", OFFICE_DOCUMENT_RELATION);
+            if (document == null) {
+                throw new InvalidDocxException("不是docx文档, 没有找到正文: " + zip.getName());
+            }
+            this.documentPart = document;
+            String directory = document.substring(0, document.lastIndexOf('/') + 1);
+            this.documentRels = directory + "_rels/" + document.substring(directory.length()) + ".rels";
+            String comments = findRelationship(documentRels, directory, COMMENTS_RELATION);
+            this.relationCreated = comments == null;
+            this.commentsPart = relationCreated ? directory + DEFAULT_COMMENTS_NAME : comments;
+            this.commentsCreated = relationCreated || zip.getEntry(commentsPart) == null;
+            this.textParts = findRelationships(documentRels, directory, TEXT_PART_RELATIONS);
+        }
+
+        private int write(OutputStream output) throws IOException, XMLStreamException {
+            long begin = System.nanoTime();
+            long clearCommentNanos = 0;
+            if (!commentsCreated) {
+                scanComments();
+                clearCommentNanos = System.nanoTime() - begin;
+            }
+            records = new CommentRecords(maxCommentId + 1);
+
+            ZipOutputStream zos = new ZipOutputStream(output);
+            boolean relsWritten = false;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                checkInterrupted();
+                if (name.equals(commentsPart)) {
+                    // 最后写出
+                    continue;
+                }
+                zos.putNextEntry(new ZipEntry(name));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    if (name.equals(documentPart) || textParts.contains(name)) {
+                        annotatePart(in, zos);
+                    } else if (commentsCreated && name.equals(CONTENT_TYPES)) {
+                        addContentType(in, zos);
+                    } else if (relationCreated && name.equals(documentRels)) {
+                        addRelationship(in, zos);
+                        relsWritten = true;
+                    } else {
+                        copy(in, zos);
+                    }
+                }
+                zos.closeEntry();
+            }
+            if (relationCreated && !relsWritten) {
+                zos.putNextEntry(new ZipEntry(documentRels));
+                addRelationship(null, zos);
+                zos.closeEntry();
+            }
+            zos.putNextEntry(new ZipEntry(commentsPart));
+            long commitBegin = System.nanoTime();
+            if (commentsCreated) {
+                writeComments(null, zos);
+            } else {
+                try (InputStream in = zip.getInputStream(zip.getEntry(commentsPart))) {
+                    writeComments(in, zos);
+                }
+            }
+            long commitNanos = System.nanoTime() - commitBegin;
+            zos.closeEntry();
+            zos.finish();
+            long total = System.nanoTime() - begin;
+            metrics.recordPhase(DocxPhase.CLEAR_COMMENT, clearCommentNanos);
+            metrics.recordPhase(DocxPhase.CLEAR_MARKUP, clearMarkupNanos);
+            metrics.recordPhase(DocxPhase.MATCH, matchNanos);
+            metrics.recordPhase(DocxPhase.APPLY, applyNanos);
+            metrics.recordPhase(DocxPhase.COMMIT, commitNanos);
+            metrics.recordPhase(DocxPhase.WRITE,
+                    total - clearCommentNanos - clearMarkupNanos - matchNanos - applyNanos - commitNanos);
+            metrics.increment(DocxCounter.PARAGRAPHS, paragraphCount);
+            metrics.increment(DocxCounter.RUNS, runCount);
+            metrics.increment(DocxCounter.HITS, hitCount);
+            metrics.increment(DocxCounter.SPLITS, splitCount);
+            metrics.increment(DocxCounter.COMMENTS_REMOVED, clearCommentIds.size());
+            metrics.increment(DocxCounter.COMMENTS_ADDED, records.size());
+            log.debug("文档 {} 新增批注 {} 个, 删除批注 {} 个", zip.getName(), records.size(), clearCommentIds.size());
+            return records.size();
+        }
+
+        /**
+         * 读取已有批注, 记录当前作者的批注ID和最大的批注ID
+         */
+        private void scanComments() throws IOException, XMLStreamException {
+            try (InputStream in = zip.getInputStream(zip.getEntry(commentsPart))) {
+                XMLEventReader reader = inputFactory.createXMLEventReader(in);
+                while (reader.hasNext()) {
+                    XMLEvent event = reader.nextEvent();
+                    if (!isElement(event, COMMENT)) {
+                        continue;
+                    }
+                    StartElement comment = event.asStartElement();
+                    Long id = getId(comment);
+                    if (id == null) {
+                        continue;
+                    }
+                    maxCommentId = Math.max(maxCommentId, id);
+                    if (author == null || author.equals(getAttribute(comment, new QName(W_NS, AUTHOR)))) {
+                        clearCommentIds.add(id);
+                    }
+                }
+                reader.close();
+            }
+        }
+
+        /**
+         * 流式处理正文、页眉页脚等部件, 删除当前作者已有批注的标签, 逐个段落批注
+         */
+        private void annotatePart(InputStream in, OutputStream out) throws IOException, XMLStreamException {
+            XMLEventReader reader = inputFactory.createXMLEventReader(in);
+            XMLEventWriter writer = outputFactory.createXMLEventWriter(out, "UTF-8");
+            ParagraphAnnotator annotator = new ParagraphAnnotator(dictionary, matchCache, records);
+            List<XMLEvent> paragraph = new ArrayList<>(256);
+            int depth = 0;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (isClearedMarkup(event)) {
+                    long begin = System.nanoTime();
+                    skipElement(reader);
+                    clearMarkupNanos += System.nanoTime() - begin;
+                    continue;
+                }
+                if (depth == 0) {
+                    if (isElement(event, "p")) {
+                        depth = 1;
+                        paragraph.add(event);
+                    } else {
+                        writer.add(event);
+                    }
+                    continue;
+                }
+                paragraph.add(event);
+                if (isElement(event, "p")) {
+                    depth++;
+                } else if (event.isEndElement() && isW(event.asEndElement().getName(), "p") && --depth == 0) {
+                    checkInterrupted();
+                    long begin = System.nanoTime();
+                    hitCount += annotator.match(paragraph);
+                    long matched = System.nanoTime();
+                    annotator.write(paragraph, writer);
+                    matchNanos += matched - begin;
+                    applyNanos += System.nanoTime() - matched;
+                    paragraphCount++;
+                    paragraph.clear();
+                }
+            }
+            writer.flush();
+            reader.close();
+            runCount += annotator.getTextRunCount();
+            splitCount += annotator.getSplitCount();
+        }
+
+        /**
+         * 是否是需要删除的批注范围标签或批注引用; 批注部件不存在时已有的标签都没有对应的批注, 全部删除, 避免与新增批注的ID重复
+         */
+        private boolean isClearedMarkup(XMLEvent event) {
+            if (!commentsCreated && clearCommentIds.isEmpty() || !event.isStartElement()) {
+                return false;
+            }
+            StartElement element = event.asStartElement();
+            if (!isW(element.getName(), COMMENT_RANGE_START) && !isW(element.getName(), COMMENT_RANGE_END)
+                    && !isW(element.getName(), COMMENT_REFERENCE)) {
+                return false;
+            }
+            Long id = getId(element);
+            return id != null && (commentsCreated || clearCommentIds.contains(id));
+        }
+
+        /**
+         * 写出批注, 保留其它作者的批注, 在末尾追加新增的批注
+         *
+         * @param in 原有的 comments.xml, 没有时为null
+         */
+        private void writeComments(InputStream in, OutputStream out) throws XMLStreamException {
+            XMLEventWriter writer = outputFactory.createXMLEventWriter(out, "UTF-8");
+            String date = CommentXmlWriter.formatDate(Instant.now());
+            if (in == null) {
+                CommentXmlWriter.writeComments(writer, (w, prefix) -> writeNewComments(w, prefix, date));
+                return;
+            }
+            XMLEventReader reader = inputFactory.createXMLEventReader(in);
+            CommentXmlWriter.copyComments(reader, writer, clearCommentIds, (w, prefix) -> writeNewComments(w, prefix, date));
+            reader.close();
+        }
+
+        private void writeNewComments(XMLEventWriter writer, String prefix, String date) throws XMLStreamException {
+            for (int i = 0; i < records.size(); i++) {
+                CommentXmlWriter.writeComment(writer, prefix, records.getId(i), author, date,
+                        dictionary.getComment(records.getPatternId(i)));
+            }
+        }
+
+        /**
+         * 在 [Content_Types].xml 中增加 comments.xml 的内容类型
+         */
+        private void addContentType(InputStream in, OutputStream out) throws XMLStreamException {
+            String partName = "/" + commentsPart;
+            XMLEventReader reader = inputFactory.createXMLEventReader(in);
+            XMLEventWriter writer = outputFactory.createXMLEventWriter(out, "UTF-8");
+            boolean exists = false;
+            int depth = 0;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    depth++;
+                    StartElement element = event.asStartElement();
+                    if ("Override".equals(element.getName().getLocalPart())
+                            && partName.equals(getAttribute(element, new QName("PartName")))) {
+                        exists = true;
+                    }
+                } else if (event.isEndElement() && --depth == 0 && !exists) {
+                    writer.add(EVENTS.createStartElement("", CONTENT_TYPES_NS, "Override", Arrays.asList(
+                            EVENTS.createAttribute("PartName", partName),
+                            EVENTS.createAttribute("ContentType", WORD_COMMENTS_CONTENT_TYPE)).iterator(), null));
+                    writer.add(EVENTS.createEndElement("", CONTENT_TYPES_NS, "Override"));
+                }
+                writer.add(event);
+            }
+            writer.flush();
+            reader.close();
+        }
+
+        /**
+         * 在正文的关系中增加批注的关系
+         *
+         * @param in 原有的关系文件, 没有时为null
+         */
+        private void addRelationship(InputStream in, OutputStream out) throws XMLStreamException {
+            XMLEventWriter writer = outputFactory.createXMLEventWriter(out, "UTF-8");
+            if (in == null) {
+                writer.add(EVENTS.createStartDocument("UTF-8", "1.0", true));
+                writer.add(EVENTS.createStartElement("", RELATIONSHIPS_NS, "Relationships", null,
+                        Collections.singletonList(EVENTS.createNamespace(RELATIONSHIPS_NS)).iterator()));
+                writeRelationship(writer, Collections.emptySet());
+                writer.add(EVENTS.createEndElement("", RELATIONSHIPS_NS, "Relationships"));
+                writer.add(EVENTS.createEndDocument());
+                writer.flush();
+                return;
+            }
+            XMLEventReader reader = inputFactory.createXMLEventReader(in);
+            Set<String> ids = new HashSet<>();
+            int depth = 0;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    depth++;
+                    String id = getAttribute(event.asStartElement(), new QName("Id"));
+                    if (id != null) {
+                        ids.add(id);
+                    }
+                } else if (event.isEndElement() && --depth == 0) {
+                    writeRelationship(writer, ids);
+                }
+                writer.add(event);
+            }
+            writer.flush();
+            reader.close();
+        }
+
+        private void writeRelationship(XMLEventWriter writer, Set<String> ids) throws XMLStreamException {
+            int index = ids.size() + 1;
+            while (ids.contains("rId" + index)) {
+                index++;
+            }
+            String directory = documentPart.substring(0, documentPart.lastIndexOf('/') + 1);
+            writer.add(EVENTS.createStartElement("", RELATIONSHIPS_NS, "Relationship", Arrays.asList(
+                    EVENTS.createAttribute("Id", "rId" + index),
+                    EVENTS.createAttribute("Type", COMMENTS_RELATION),
+                    EVENTS.createAttribute("Target", commentsPart.substring(directory.length()))).iterator(), null));
+            writer.add(EVENTS.createEndElement("", RELATIONSHIPS_NS, "Relationship"));
+        }
+
+        /**
+         * 在关系文件中查找指定类型的全部关系的目标部件
+         *
+         * @return 目标部件在zip中的名称
+         */
+        private Set<String> findRelationships(String relsName, String directory, Set<String> types) throws IOException, XMLStreamException {
+            Set<String> targets = new HashSet<>();
+            ZipEntry entry = zip.getEntry(relsName);
+            if (entry == null) {
+                return targets;
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                XMLEventReader reader = inputFactory.createXMLEventReader(in);
+                while (reader.hasNext()) {
+                    XMLEvent event = reader.nextEvent();
+                    if (event.isStartElement() && isInternalRelationship(event.asStartElement(), types)) {
+                        targets.add(resolve(directory, getAttribute(event.asStartElement(), new QName("Target"))));
+                    }
+                }
+                reader.close();
+            }
+            return targets;
+        }
+
+        /**
+         * 在关系文件中查找指定类型的关系的目标部件
+         *
+         * @return 目标部件在zip中的名称, 没有时返回null
+         */
+        private String findRelationship(String relsName, String directory, String type) throws IOException, XMLStreamException {
+            ZipEntry entry = zip.getEntry(relsName);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                XMLEventReader reader = inputFactory.createXMLEventReader(in);
+                while (reader.hasNext()) {
+                    XMLEvent event = reader.nextEvent();
+                    if (!event.isStartElement()) {
+                        continue;
+                    }
+                    StartElement element = event.asStartElement();
+                    if (isInternalRelationship(element, Collections.singleton(type))) {
+                        reader.close();
+                        return resolve(directory, getAttribute(element, new QName("Target")));
+                    }
+                }
+                reader.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 是否是指定类型的包内部关系
+     */
+    private static boolean isInternalRelationship(StartElement element, Set<String> types) {
+        return RELATIONSHIPS_NS.equals(element.getName().getNamespaceURI())
+                && "Relationship".equals(element.getName().getLocalPart())
+                && types.contains(getAttribute(element, new QName("Type")))
+                && !"External".equals(getAttribute(element, new QName("TargetMode")));
+    }
+
+    /**
+     * 处理线程被中断(如处理超时被取消)时停止处理
+     */
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("文档批注被中断");
+        }
+    }
+
+    private static boolean isElement(XMLEvent event, String localName) {
+        return event.isStartElement() && isW(event.asStartElement().getName(), localName);
+    }
+
+    private static String getAttribute(StartElement element, QName name) {
+        Attribute attribute = element.getAttributeByName(name);
+        return attribute == null ? null : attribute.getValue();
+    }
+
+    /**
+     * 将关系的目标解析为zip中的名称
+     */
+    private static String resolve(String directory, String target) {
+        String path = target.startsWith("/") ? target.substring(1) : directory + target;
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if ("..".equals(segment)) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !".".equals(segment)) {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+}
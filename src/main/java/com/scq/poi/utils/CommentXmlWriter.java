@@ -0,0 +1,196 @@
+package com.scq.poi.utils;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * 以StAX事件流的方式写出批注相关的xml, 不创建XMLBeans对象, 流式处理和 {@link com.scq.poi.DocxComments} 共用
+ *
+ * @author by suchangqin
+ * @date 2023/8/30 11:05
+ */
+public class CommentXmlWriter {
+
+    public static final String W_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    public static final String W_PREFIX = "w";
+
+    public static final String COMMENTS = "comments";
+    public static final String COMMENT = "comment";
+    public static final String COMMENT_RANGE_START = "commentRangeStart";
+    public static final String COMMENT_RANGE_END = "commentRangeEnd";
+    public static final String COMMENT_REFERENCE = "commentReference";
+    public static final String ID = "id";
+    public static final String AUTHOR = "author";
+
+    private static final XMLEventFactory EVENTS = XMLEventFactory.newInstance();
+    private static final QName XML_SPACE = new QName(XMLConstants.XML_NS_URI, "space", XMLConstants.XML_NS_PREFIX);
+    private static final QName ID_QNAME = new QName(W_NS, ID);
+
+    private CommentXmlWriter() {
+    }
+
+    /**
+     * 批注日期, 同一批次的批注共用同一个时间
+     */
+    public static String formatDate(Instant instant) {
+        return DateTimeFormatter.ISO_INSTANT.format(instant.truncatedTo(ChronoUnit.SECONDS));
+    }
+
+    /**
+     * 写出一个批注: &lt;w:comment&gt;&lt;w:p&gt;&lt;w:r&gt;&lt;w:t&gt;批注内容&lt;/w:t&gt;&lt;/w:r&gt;&lt;/w:p&gt;&lt;/w:comment&gt;
+     */
+    public static void writeComment(XMLEventWriter writer, String prefix, long id, String author, String date,
+                                    String text) throws XMLStreamException {
+        writer.add(EVENTS.createStartElement(prefix, W_NS, COMMENT, Arrays.asList(
+                attribute(prefix, ID, Long.toString(id)),
+                attribute(prefix, AUTHOR, author == null ? "" : author),
+                attribute(prefix, "date", date),
+                attribute(prefix, "initials", "")).iterator(), null));
+        writer.add(EVENTS.createStartElement(prefix, W_NS, "p"));
+        writer.add(EVENTS.createStartElement(prefix, W_NS, "r"));
+        writeText(writer, prefix, text);
+        writer.add(EVENTS.createEndElement(prefix, W_NS, "r"));
+        writer.add(EVENTS.createEndElement(prefix, W_NS, "p"));
+        writer.add(EVENTS.createEndElement(prefix, W_NS, COMMENT));
+    }
+
+    /**
+     * 写出 &lt;w:t xml:space="preserve"&gt;文本&lt;/w:t&gt;
+     */
+    public static void writeText(XMLEventWriter writer, String prefix, String text) throws XMLStreamException {
+        writer.add(EVENTS.createStartElement(prefix, W_NS, "t",
+                Arrays.asList(EVENTS.createAttribute(XML_SPACE, "preserve")).iterator(), null));
+        writer.add(EVENTS.createCharacters(text));
+        writer.add(EVENTS.createEndElement(prefix, W_NS, "t"));
+    }
+
+    /**
+     * 写出批注的范围标签 &lt;w:commentRangeStart w:id=""/&gt; 或 &lt;w:commentRangeEnd w:id=""/&gt;
+     */
+    public static void writeRange(XMLEventWriter writer, String prefix, long id, boolean start) throws XMLStreamException {
+        String localName = start ? COMMENT_RANGE_START : COMMENT_RANGE_END;
+        writer.add(EVENTS.createStartElement(prefix, W_NS, localName,
+                Arrays.asList(attribute(prefix, ID, Long.toString(id))).iterator(), null));
+        writer.add(EVENTS.createEndElement(prefix, W_NS, localName));
+    }
+
+    /**
+     * 写出批注引用 &lt;w:r&gt;&lt;w:commentReference w:id=""/&gt;&lt;/w:r&gt;
+     */
+    public static void writeReferenceRun(XMLEventWriter writer, String prefix, long id) throws XMLStreamException {
+        writer.add(EVENTS.createStartElement(prefix, W_NS, "r"));
+        writer.add(EVENTS.createStartElement(prefix, W_NS, COMMENT_REFERENCE,
+                Arrays.asList(attribute(prefix, ID, Long.toString(id))).iterator(), null));
+        writer.add(EVENTS.createEndElement(prefix, W_NS, COMMENT_REFERENCE));
+        writer.add(EVENTS.createEndElement(prefix, W_NS, "r"));
+    }
+
+    /**
+     * 复制已有的 comments.xml, 跳过已删除的批注, 在根节点结束前写出新增的批注
+     *
+     * @param reader      已有的 comments.xml
+     * @param writer      输出
+     * @param skipIds     需要跳过的批注ID
+     * @param newComments 写出新增的批注
+     */
+    public static void copyComments(XMLEventReader reader, XMLEventWriter writer, LongHashSet skipIds,
+                                    NewComments newComments) throws XMLStreamException {
+        String prefix = W_PREFIX;
+        int depth = 0;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                StartElement element = event.asStartElement();
+                if (depth == 0) {
+                    prefix = element.getName().getPrefix();
+                } else if (depth == 1 && isW(element.getName(), COMMENT) && !skipIds.isEmpty()) {
+                    Long id = getId(element);
+                    if (id != null && skipIds.contains(id)) {
+                        skipElement(reader);
+                        continue;
+                    }
+                }
+                depth++;
+            } else if (event.isEndElement() && --depth == 0) {
+                newComments.write(writer, prefix);
+            }
+            writer.add(event);
+        }
+        writer.flush();
+    }
+
+    /**
+     * 写出只包含新增批注的 comments.xml
+     */
+    public static void writeComments(XMLEventWriter writer, NewComments newComments) throws XMLStreamException {
+        writer.add(EVENTS.createStartDocument("UTF-8", "1.0", true));
+        writer.add(EVENTS.createStartElement(W_PREFIX, W_NS, COMMENTS, null,
+                Collections.singletonList(EVENTS.createNamespace(W_PREFIX, W_NS)).iterator()));
+        newComments.write(writer, W_PREFIX);
+        writer.add(EVENTS.createEndElement(W_PREFIX, W_NS, COMMENTS));
+        writer.add(EVENTS.createEndDocument());
+        writer.flush();
+    }
+
+    /**
+     * 批注相关标签的 w:id, 没有或无法解析时返回null
+     */
+    public static Long getId(StartElement element) {
+        Attribute attribute = element.getAttributeByName(ID_QNAME);
+        if (attribute == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(attribute.getValue().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static boolean isW(QName name, String localName) {
+        return localName.equals(name.getLocalPart()) && W_NS.equals(name.getNamespaceURI());
+    }
+
+    /**
+     * 跳过当前元素的剩余事件
+     */
+    public static void skipElement(XMLEventReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * 写出新增的批注
+     */
+    @FunctionalInterface
+    public interface NewComments {
+        /**
+         * @param writer 输出
+         * @param prefix 已有 comments.xml 中 w 命名空间的前缀
+         */
+        void write(XMLEventWriter writer, String prefix) throws XMLStreamException;
+    }
+
+    private static Attribute attribute(String prefix, String localName, String value) {
+        return EVENTS.createAttribute(prefix, W_NS, localName, value);
+    }
+}
@@ -0,0 +1,58 @@
+package com.scq.poi.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256摘要及十六进制转换, 用于词典指纹、图片和文档结果缓存的key
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 18:30
+ */
+public final class DigestUtils {
+
+    private DigestUtils() {
+    }
+
+    /**
+     * 创建SHA-256摘要, 每次返回新的实例, 不能多线程共用
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 计算数据的摘要
+     *
+     * @return 十六进制SHA-256
+     */
+    public static String sha256Hex(byte[] data) {
+        return toHex(newSha256().digest(data));
+    }
+
+    /**
+     * 转换为小写十六进制字符串
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 十六进制字符串转换为字节数组, 见 {@link #toHex(byte[])}
+     */
+    public static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -11,6 +11,7 @@ import org.openxmlformats.schemas.drawingml.x2006.wordprocessingDrawing.CTInline
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.*;
 import org.w3c.dom.Node;
 
+import javax.xml.namespace.QName;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,9 +27,10 @@ public class DocxHelper {
     private static final String ALL_CHILD_NODE = "./*";
     private static final String COMMENT_START_PART = "commentRangeStart";
     private static final String COMMENT_END_PART = "commentRangeEnd";
-    private static final String COMMENT_END_XML = "w:commentRangeEnd";
-    private static final String COMMENT_START_XML = "w:commentRangeStart";
-    private static final String ID_XML = "w:id";
+    private static final String COMMENT_REFERENCE_PART = "commentReference";
+    private static final String W_NS = CTR.type.getName().getNamespaceURI();
+    private static final QName ID_QNAME = new QName(W_NS, "id");
+    private static final String RUN_PART = "r";
 
     /**
      * 获取docx文件某一个段落中的所有图片的id
@@ -97,6 +99,9 @@ public class DocxHelper {
     }
 
 
+    /**
+     * 在run之前插入批注的开始范围标签, 或在run之后插入批注的结束范围标签
+     */
     public static void insertCommentRangeToRun(XWPFRun run, boolean start, BigInteger commentId) {
         String uri = CTMarkupRange.type.getName().getNamespaceURI();
         String localPart;
@@ -105,11 +110,9 @@ public class DocxHelper {
             // 批注的开始标签名, org.openxmlformats.schemas.wordprocessingml.x2006.main.impl.CTRImpl.PROPERTY_QNAME
             localPart = COMMENT_START_PART;
         } else {
-            if (!cursor.toNextSibling()) {
-                // 如果没有下一个兄弟节点 , 则跳到父节点的下一个兄弟节点添加结束标签
-                cursor.toParent();
-                cursor.toNextSibling();
-            }
+            // 跳到run的结束标签之后, run是父节点的最后一个子节点时也在父节点内添加结束标签
+            cursor.toEndToken();
+            cursor.toNextToken();
             // 批注的结束标签名
             localPart = COMMENT_END_PART;
         }
@@ -123,41 +126,58 @@ public class DocxHelper {
     }
 
     /**
-     * 递归: 删除指定批注的范围标签, 删除当前run的父级下的所有匹配的,
-     * 使用默认方法:
-     * paragraph.getCTP().getCommentRangeStartList().removeIf(p);
-     * paragraph.getCTP().getCommentRangeEndList().removeIf(p);
-     * 无法在WPS编辑内容的批注标签 , 集合上没有
+     * 删除指定批注的范围标签和引用, 从根节点开始以一个光标顺序遍历一次根节点内的全部节点, 不递归,
+     * 包括表格、文本框、内容控件及WPS在线编辑插入的不在同一层级的标签; 遍历到根节点的结束位置为止, 不处理其后的兄弟节点
      *
-     * @param run                当前run
+     * @param root               根节点, 如 document.getDocument() 或单个脚注
      * @param clearCommentIdList 指定的批注的id集
+     * @return 删除的标签数量
      */
-    public static void clearRunCommentStartAndEndXml(XWPFRun run, List<BigInteger> clearCommentIdList) {
-        XmlCursor oldCursor = run.getCTR().newCursor();
-        oldCursor.toParent();
-        oldCursor.toFirstChild();
-        removeCommentXml(clearCommentIdList, oldCursor);
-    }
-
-    private static void removeCommentXml(List<BigInteger> clearCommentIdList, XmlCursor oldCursor) {
-        Node node = oldCursor.getDomNode();
-        boolean delete = false;
-        if (COMMENT_START_XML.equals(node.getNodeName()) || COMMENT_END_XML.equals(node.getNodeName())) {
-            String id = getAttribute(node, ID_XML);
-            if (clearCommentIdList.contains(new BigInteger(id))) {
-                oldCursor.removeXml();
-                delete = true;
+    public static int clearCommentXml(XmlObject root, LongHashSet clearCommentIdList) {
+        if (clearCommentIdList.isEmpty()) {
+            return 0;
+        }
+        int removed = 0;
+        XmlCursor cursor = root.newCursor();
+        // 根节点的结束位置, 删除节点不会移动该光标
+        XmlCursor end = root.newCursor();
+        end.toEndToken();
+        XmlCursor.TokenType token = cursor.currentTokenType();
+        while (!token.isEnddoc() && !token.isNone() && cursor.comparePosition(end) < 0) {
+            if (token.isStart() && isCommentMarkup(cursor.getName())) {
+                String id = cursor.getAttributeText(ID_QNAME);
+                if (id != null && clearCommentIdList.contains(parseId(id))) {
+                    // 删除后光标会到下一个节点
+                    cursor.removeXml();
+                    removed++;
+                    token = cursor.currentTokenType();
+                    continue;
+                }
             }
+            token = cursor.toNextToken();
+        }
+        cursor.dispose();
+        end.dispose();
+        return removed;
+    }
 
-            if (delete || oldCursor.toNextSibling()) {
-                // 删除后光标会到下一个节点
-                removeCommentXml(clearCommentIdList, oldCursor);
-            }
+    private static boolean isCommentMarkup(QName name) {
+        if (!W_NS.equals(name.getNamespaceURI())) {
+            return false;
+        }
+        String localPart = name.getLocalPart();
+        return COMMENT_START_PART.equals(localPart) || COMMENT_END_PART.equals(localPart)
+                || COMMENT_REFERENCE_PART.equals(localPart);
+    }
 
-        } else {
-            if (oldCursor.toNextSibling()) {
-                removeCommentXml(clearCommentIdList, oldCursor);
-            }
+    /**
+     * 解析批注id, 无法解析时返回-1
+     */
+    private static long parseId(String id) {
+        try {
+            return Long.parseLong(id.trim());
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
@@ -175,6 +195,35 @@ public class DocxHelper {
                 .getNodeValue() : null;
     }
 
+    /**
+     * 在run之后插入一个新run, 新run与原run在同一个父节点下(段落、超链接、修订插入等)
+     *
+     * @param run       原run
+     * @param paragraph 所属段落
+     * @return 新run, 不会加入段落的 {@link XWPFParagraph#getRuns()}
+     */
+    public static XWPFRun insertNewRunAfter(XWPFRun run, XWPFParagraph paragraph) {
+        XmlCursor cursor = run.getCTR().newCursor();
+        cursor.toEndToken();
+        cursor.toNextToken();
+        cursor.beginElement(RUN_PART, CTR.type.getName().getNamespaceURI());
+        cursor.toParent();
+        CTR ctr = (CTR) cursor.getObject();
+        cursor.dispose();
+        return new XWPFRun(ctr, paragraph);
+    }
+
+    /**
+     * 设置run的文本, 只保留第一个文本标签
+     */
+    public static void setRunText(XWPFRun run, String text) {
+        CTR ctr = run.getCTR();
+        for (int i = ctr.sizeOfTArray() - 1; i > 0; i--) {
+            ctr.removeT(i);
+        }
+        run.setText(text, 0);
+    }
+
     public static void copyStyle(XWPFRun fromRun, XWPFRun toRun) {
         CTR source = fromRun.getCTR();
         CTRPr rPrSource = source.getRPr();
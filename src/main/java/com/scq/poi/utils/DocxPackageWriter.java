@@ -0,0 +1,94 @@
+package com.scq.poi.utils;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.ZipPackagePart;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 只重写变化部件的docx文档保存: 图片、嵌入对象等非xml部件从源文件按压缩数据原样复制, 不解压也不重新压缩
+ * <p>
+ * 原理: 保存前将未修改的非xml部件替换为空部件, 由POI保存只包含xml部件的文档,
+ * 再逐个复制其压缩数据到输出, 空部件改为复制源文件中对应条目的压缩数据。
+ * 保存后文档中被替换的部件内容为空, 文档不能再使用。
+ *
+ * @author by suchangqin
+ * @date 2023/9/7 10:20
+ */
+public final class DocxPackageWriter {
+
+    private DocxPackageWriter() {
+    }
+
+    /**
+     * 保存文档
+     *
+     * @param document 从 source 读取的文档
+     * @param source   源docx文档文件
+     * @param output   输出流, 不会被关闭
+     * @return 原样复制的条目数量
+     */
+    public static int write(XWPFDocument document, Path source, OutputStream output) throws IOException {
+        try (ZipFile sourceZip = new ZipFile(source.toFile())) {
+            Set<String> rawEntries = replaceBinaryParts(document.getPackage(), sourceZip);
+
+            ByteArrayOutputStream skeleton = new ByteArrayOutputStream(1 << 16);
+            document.write(skeleton);
+
+            try (ZipFile written = new ZipFile(new SeekableInMemoryByteChannel(skeleton.toByteArray()))) {
+                ZipArchiveOutputStream zipOut = new ZipArchiveOutputStream(output);
+                for (Enumeration<ZipArchiveEntry> entries = written.getEntriesInPhysicalOrder(); entries.hasMoreElements(); ) {
+                    ZipArchiveEntry entry = entries.nextElement();
+                    ZipArchiveEntry original = rawEntries.contains(entry.getName()) ? sourceZip.getEntry(entry.getName()) : null;
+                    if (original != null) {
+                        zipOut.addRawArchiveEntry(original, sourceZip.getRawInputStream(original));
+                    } else {
+                        zipOut.addRawArchiveEntry(entry, written.getRawInputStream(entry));
+                    }
+                }
+                zipOut.finish();
+                zipOut.flush();
+            }
+            return rawEntries.size();
+        }
+    }
+
+    /**
+     * 将源文件中存在的非xml部件替换为空部件, 替换后POI不再读取和压缩其内容
+     *
+     * @return 被替换部件的条目名称
+     */
+    private static Set<String> replaceBinaryParts(OPCPackage opcPackage, ZipFile sourceZip) throws IOException {
+        List<PackagePart> binaryParts = new ArrayList<>();
+        for (PackagePart part : opcPackage.getParts()) {
+            if (part instanceof ZipPackagePart && !part.isRelationshipPart() && !isXml(part.getContentType())) {
+                binaryParts.add(part);
+            }
+        }
+        Set<String> rawEntries = new HashSet<>(binaryParts.size() * 2);
+        for (PackagePart part : binaryParts) {
+            String name = ((ZipPackagePart) part).getZipArchive().getName();
+            if (sourceZip.getEntry(name) == null) {
+                continue;
+            }
+            // 对只读的zip部件获取输出流时POI会将其替换为同名的内存部件, 关系和内容类型不变
+            part.getOutputStream().close();
+            rawEntries.add(name);
+        }
+        return rawEntries;
+    }
+
+    private static boolean isXml(String contentType) {
+        return contentType.endsWith("xml");
+    }
+}
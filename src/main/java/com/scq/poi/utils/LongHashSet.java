@@ -0,0 +1,118 @@
+package com.scq.poi.utils;
+
+import java.util.Arrays;
+
+/**
+ * long类型的哈希集合, 开放寻址, 不装箱, 用于保存批注ID等
+ *
+ * @author by suchangqin
+ * @date 2023/9/1 14:10
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    /**
+     * 哈希槽, EMPTY 表示空槽, 0 单独记录
+     */
+    private long[] slots;
+    private boolean containsZero;
+    private int size;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize 预计的元素数量
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        slots = new long[capacity];
+    }
+
+    /**
+     * 添加元素
+     *
+     * @return 集合中原本没有该元素时返回true
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        size++;
+        if (size * 4 > slots.length * 3) {
+            resize();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 清空集合, 保留已分配的数组
+     */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        containsZero = false;
+        size = 0;
+    }
+
+    private void resize() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        int mask = slots.length - 1;
+        for (long value : old) {
+            if (value != EMPTY) {
+                int i = hash(value) & mask;
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
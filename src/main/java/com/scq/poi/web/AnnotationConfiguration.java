@@ -0,0 +1,84 @@
+package com.scq.poi.web;
+
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.dictionary.DictionaryRegistry;
+import com.scq.poi.metrics.DocxMetrics;
+import com.scq.poi.metrics.MicrometerDocxMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批注服务的词典注册中心、处理线程池和处理指标
+ *
+ * @author by suchangqin
+ * @date 2023/9/6 10:10
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(AnnotationProperties.class)
+public class AnnotationConfiguration {
+
+    private static final String DICTIONARY_SUFFIX = ".dict";
+
+    /**
+     * 词典注册中心, 注册词典目录中的全部词典, 所有请求共用
+     */
+    @Bean
+    public DictionaryRegistry dictionaryRegistry(AnnotationProperties properties) throws IOException {
+        DictionaryRegistry registry = new DictionaryRegistry(properties.getDictionaryMemoryBudget());
+        if (StringUtils.isEmpty(properties.getDictionaryDir())) {
+            return registry;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(properties.getDictionaryDir()), "*" + DICTIONARY_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String name = fileName.substring(0, fileName.length() - DICTIONARY_SUFFIX.length());
+                registry.register(name, Files.getLastModifiedTime(file).toMillis(), () -> CompiledDictionary.load(file));
+                log.info("注册批注词典: {} -> {}", name, file);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * 文档处理各阶段的耗时和计数, 通过Actuator导出, 指标见 {@link MicrometerDocxMetrics}
+     */
+    @Bean
+    public DocxMetrics docxMetrics(MeterRegistry meterRegistry) {
+        return new MicrometerDocxMetrics(meterRegistry);
+    }
+
+    /**
+     * 处理文档的线程池: 固定线程数, 有界队列, 队列满时拒绝
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor annotationExecutor(AnnotationProperties properties, MeterRegistry meterRegistry) {
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "docx-annotate-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        new ExecutorServiceMetrics(executor, "docx.annotate.executor", Tags.empty()).bindTo(meterRegistry);
+        return executor;
+    }
+}
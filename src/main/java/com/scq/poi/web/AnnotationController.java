@@ -0,0 +1,96 @@
+package com.scq.poi.web;
+
+import com.scq.poi.dictionary.UnknownDictionaryException;
+import com.scq.poi.stream.InvalidDocxException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 批注接口
+ * <p>
+ * POST /annotate, multipart参数: file 为docx文档, ruleSet 为词典名称, author 为批注作者(可选),
+ * 响应体为处理后的文档, 响应头 X-Comment-Count 为新增的批注数量;
+ * 词典不存在返回404, 服务繁忙返回503(可重试), 文档处理超时或不是有效的docx文档返回422(不应重试),
+ * 临时文件、结果缓存等服务端的读写异常返回500
+ *
+ * @author by suchangqin
+ * @date 2023/9/6 10:40
+ */
+@Slf4j
+@RestController
+public class AnnotationController {
+
+    private static final MediaType DOCX = MediaType.parseMediaType(
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+    private static final String COMMENT_COUNT_HEADER = "X-Comment-Count";
+    /**
+     * 服务繁忙时建议的重试间隔(秒)
+     */
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final AnnotationService annotationService;
+
+    public AnnotationController(AnnotationService annotationService) {
+        this.annotationService = annotationService;
+    }
+
+    @PostMapping(value = "/annotate", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> annotate(@RequestParam("file") MultipartFile file,
+                                                          @RequestParam("ruleSet") String ruleSet,
+                                                          @RequestParam(value = "author", required = false) String author)
+            throws IOException, InterruptedException {
+        AnnotationResult result = annotationService.annotate(file, ruleSet, author);
+        StreamingResponseBody body = out -> {
+            try {
+                Files.copy(result.getTarget(), out);
+            } finally {
+                AnnotationService.deleteTemp(result.getTarget());
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(DOCX)
+                .contentLength(Files.size(result.getTarget()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"annotated.docx\"")
+                .header(COMMENT_COUNT_HEADER, String.valueOf(result.getCommentCount()))
+                .body(body);
+    }
+
+    @ExceptionHandler(ServiceBusyException.class)
+    public ResponseEntity<String> handleBusy(ServiceBusyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(e.getMessage());
+    }
+
+    @ExceptionHandler(UnknownDictionaryException.class)
+    public ResponseEntity<String> handleNotFound(UnknownDictionaryException e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+    }
+
+    @ExceptionHandler(ProcessingTimeoutException.class)
+    public ResponseEntity<String> handleProcessingTimeout(ProcessingTimeoutException e) {
+        log.warn(e.getMessage());
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+    }
+
+    @ExceptionHandler(InvalidDocxException.class)
+    public ResponseEntity<String> handleInvalidDocument(InvalidDocxException e) {
+        log.warn("文档无法处理: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+    }
+
+    @ExceptionHandler(IOException.class)
+    public ResponseEntity<String> handleError(IOException e) {
+        log.error("文档批注失败", e);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("文档批注失败");
+    }
+}
@@ -0,0 +1,62 @@
+package com.scq.poi.web;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 批注服务配置, 前缀 docx.annotation
+ *
+ * @author by suchangqin
+ * @date 2023/9/6 10:05
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "docx.annotation")
+public class AnnotationProperties {
+
+    /**
+     * 处理文档的线程数, 默认CPU核数
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /**
+     * 等待处理的请求数上限, 超过时立即返回503
+     */
+    private int queueCapacity = 64;
+    /**
+     * 单个请求在队列中等待开始处理的最长时间(秒), 超时返回503
+     */
+    private long timeoutSeconds = 120;
+    /**
+     * 单个文档开始处理后的最长处理时间(秒), 超时中断处理并返回422, 不应重试
+     */
+    private long processingTimeoutSeconds = 300;
+    /**
+     * 未指定作者时新增批注的作者
+     */
+    private String defaultAuthor = "robot";
+    /**
+     * 编译后的词典文件目录, 启动时注册其中的 *.dict 文件, 词典名称为文件名, 版本为文件修改时间
+     */
+    private String dictionaryDir;
+    /**
+     * 已加载词典的内存预算(字节), 超过时淘汰最久未使用的词典
+     */
+    private long dictionaryMemoryBudget = Long.MAX_VALUE;
+    /**
+     * 跨文档的段落匹配结果缓存的段落数量上限, 为0时不缓存
+     */
+    private int matchCacheSize = 10000;
+    /**
+     * 批注结果缓存目录, 相同的文档、词典和作者直接返回缓存的结果, 为空时不缓存
+     */
+    private String resultCacheDir;
+    /**
+     * 批注结果缓存的总大小上限(字节)
+     */
+    private long resultCacheMaxBytes = 1L << 30;
+    /**
+     * 上传文档和处理结果的临时目录, 默认系统临时目录
+     */
+    private String tempDir;
+}
@@ -0,0 +1,26 @@
+package com.scq.poi.web;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * 单个文档的批注结果, 处理后的文档保存在临时文件中, 写出响应后删除
+ *
+ * @author by suchangqin
+ * @date 2023/9/6 10:25
+ */
+@Getter
+@AllArgsConstructor
+public class AnnotationResult {
+
+    /**
+     * 处理后的文档
+     */
+    private final Path target;
+    /**
+     * 新增的批注数量
+     */
+    private final int commentCount;
+}
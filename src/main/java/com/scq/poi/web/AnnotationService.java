@@ -0,0 +1,233 @@
+package com.scq.poi.web;
+
+import com.scq.poi.dictionary.CompiledDictionary;
+import com.scq.poi.dictionary.DictionaryRegistry;
+import com.scq.poi.dictionary.ParagraphMatchCache;
+import com.scq.poi.dictionary.UnknownDictionaryException;
+import com.scq.poi.metrics.DocxMetrics;
+import com.scq.poi.stream.StreamingDocxAnnotator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.*;
+
+/**
+ * 批注服务: 上传的文档保存为临时文件后提交到有界线程池, 使用共享的编译后词典以 {@link StreamingDocxAnnotator} 处理
+ * <p>
+ * 线程池的等待队列满时立即拒绝, 不在请求线程中排队, 单节点在过载时延迟可预期。
+ * 配置了结果缓存时先按上传文档的摘要查找缓存, 命中时在请求线程中直接返回缓存的结果, 不保存上传的文档也不占用线程池。
+ *
+ * @author by suchangqin
+ * @date 2023/9/6 10:30
+ */
+@Slf4j
+@Service
+public class AnnotationService {
+
+    private final DictionaryRegistry dictionaryRegistry;
+    private final ThreadPoolExecutor executor;
+    private final AnnotationProperties properties;
+    private final Timer annotateTimer;
+    private final Counter rejectedCounter;
+    /**
+     * 文档处理各阶段的指标, 所有请求共用
+     */
+    private final DocxMetrics docxMetrics;
+    /**
+     * 所有请求共用的段落匹配结果缓存, 不缓存时为null
+     */
+    private final ParagraphMatchCache matchCache;
+    /**
+     * 文档批注结果缓存, 不缓存时为null
+     */
+    private final DocumentResultCache resultCache;
+
+    public AnnotationService(DictionaryRegistry dictionaryRegistry, ThreadPoolExecutor annotationExecutor,
+                             AnnotationProperties properties, MeterRegistry meterRegistry, DocxMetrics docxMetrics)
+            throws IOException {
+        this.dictionaryRegistry = dictionaryRegistry;
+        this.docxMetrics = docxMetrics;
+        this.executor = annotationExecutor;
+        this.properties = properties;
+        this.annotateTimer = Timer.builder("docx.service.annotate").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("docx.service.rejected").register(meterRegistry);
+        this.matchCache = properties.getMatchCacheSize() > 0 ? new ParagraphMatchCache(properties.getMatchCacheSize()) : null;
+        if (matchCache != null) {
+            FunctionCounter.builder("docx.match.cache.hits", matchCache, ParagraphMatchCache::getHitCount)
+                    .description("命中段落匹配结果缓存的段落数").register(meterRegistry);
+            FunctionCounter.builder("docx.match.cache.misses", matchCache, ParagraphMatchCache::getMissCount)
+                    .description("未命中段落匹配结果缓存的段落数").register(meterRegistry);
+            Gauge.builder("docx.match.cache.hit.rate", matchCache, ParagraphMatchCache::getHitRate)
+                    .register(meterRegistry);
+            Gauge.builder("docx.match.cache.size", matchCache, ParagraphMatchCache::size)
+                    .register(meterRegistry);
+        }
+        this.resultCache = StringUtils.isEmpty(properties.getResultCacheDir()) ? null
+                : new DocumentResultCache(Paths.get(properties.getResultCacheDir()), properties.getResultCacheMaxBytes());
+        if (resultCache != null) {
+            FunctionCounter.builder("docx.result.cache.hits", resultCache, DocumentResultCache::getHitCount)
+                    .description("直接返回缓存的批注结果的请求数").register(meterRegistry);
+            FunctionCounter.builder("docx.result.cache.misses", resultCache, DocumentResultCache::getMissCount)
+                    .description("未命中批注结果缓存的请求数").register(meterRegistry);
+            Gauge.builder("docx.result.cache.size", resultCache, DocumentResultCache::getSizeInBytes)
+                    .baseUnit("bytes").register(meterRegistry);
+        }
+    }
+
+    /**
+     * 批注上传的文档, 处理完成后返回
+     *
+     * @param file    上传的docx文档
+     * @param ruleSet 词典名称
+     * @param author  批注作者, 为空时使用默认作者
+     * @return 批注结果, 调用方负责删除结果文件
+     * @throws UnknownDictionaryException 词典未注册
+     * @throws ServiceBusyException       等待队列已满或在队列中等待超时
+     * @throws ProcessingTimeoutException 开始处理后处理超时
+     */
+    public AnnotationResult annotate(MultipartFile file, String ruleSet, String author) throws IOException, InterruptedException {
+        // 先获取词典, 词典不存在时不保存上传的文档
+        CompiledDictionary dictionary = dictionaryRegistry.get(ruleSet);
+        String commentAuthor = StringUtils.isEmpty(author) ? properties.getDefaultAuthor() : author;
+        String key = null;
+        if (resultCache != null) {
+            try (InputStream in = file.getInputStream()) {
+                key = DocumentResultCache.key(DocumentResultCache.digest(in), dictionary.getFingerprint(), commentAuthor);
+            }
+            AnnotationResult cached = findCached(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Path source = createTempFile();
+        Path target = null;
+        try {
+            file.transferTo(source);
+            target = createTempFile();
+            CountDownLatch started = new CountDownLatch(1);
+            Future<Integer> future = submit(dictionary, commentAuthor, source, target, started);
+            int commentCount = await(future, started);
+            if (key != null) {
+                cacheResult(key, target, commentCount);
+            }
+            AnnotationResult result = new AnnotationResult(target, commentCount);
+            target = null;
+            return result;
+        } finally {
+            deleteTemp(source);
+            deleteTemp(target);
+        }
+    }
+
+    /**
+     * 从结果缓存复制到临时文件
+     *
+     * @return 批注结果, 没有缓存时返回null
+     */
+    private AnnotationResult findCached(String key) throws IOException {
+        Path target = createTempFile();
+        try {
+            int commentCount = resultCache.copyTo(key, target);
+            if (commentCount < 0) {
+                return null;
+            }
+            AnnotationResult result = new AnnotationResult(target, commentCount);
+            target = null;
+            return result;
+        } finally {
+            deleteTemp(target);
+        }
+    }
+
+    /**
+     * 保存批注结果到缓存, 保存失败只记录日志, 不影响本次请求
+     */
+    private void cacheResult(String key, Path target, int commentCount) {
+        try {
+            resultCache.put(key, target, commentCount);
+        } catch (IOException e) {
+            log.warn("批注结果缓存保存失败: {}", key, e);
+        }
+    }
+
+    /**
+     * @param started 开始处理时计数, 在队列中被取消时不计数
+     */
+    private Future<Integer> submit(CompiledDictionary dictionary, String author, Path source, Path target, CountDownLatch started) {
+        try {
+            return executor.submit(() -> {
+                started.countDown();
+                long begin = System.nanoTime();
+                StreamingDocxAnnotator annotator = new StreamingDocxAnnotator(dictionary);
+                annotator.setAuthor(author);
+                annotator.setMatchCache(matchCache);
+                annotator.setMetrics(docxMetrics);
+                int commentCount = annotator.execute(source, target);
+                annotateTimer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+                return commentCount;
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new ServiceBusyException("批注服务繁忙, 等待处理的文档已达上限 " + properties.getQueueCapacity());
+        }
+    }
+
+    /**
+     * 等待处理完成: 在队列中等待超时返回繁忙, 可稍后重试; 开始处理后超时中断处理, 重试也会同样超时
+     */
+    private int await(Future<Integer> future, CountDownLatch started) throws IOException, InterruptedException {
+        try {
+            // 在队列中等待超时且尚未开始时取消, 已开始的继续等待处理完成
+            if (!started.await(properties.getTimeoutSeconds(), TimeUnit.SECONDS) && future.cancel(false)) {
+                rejectedCounter.increment();
+                throw new ServiceBusyException("批注服务繁忙, 等待处理超时");
+            }
+            return future.get(properties.getProcessingTimeoutSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new ProcessingTimeoutException("文档处理超时, 超过 " + properties.getProcessingTimeoutSeconds() + " 秒");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("文档批注失败", cause);
+        }
+    }
+
+    private Path createTempFile() throws IOException {
+        if (StringUtils.isEmpty(properties.getTempDir())) {
+            return Files.createTempFile("docx-annotate-", ".docx");
+        }
+        return Files.createTempFile(Paths.get(properties.getTempDir()), "docx-annotate-", ".docx");
+    }
+
+    /**
+     * 删除临时文件, 删除失败只记录日志
+     */
+    static void deleteTemp(Path temp) {
+        if (temp == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            log.warn("临时文件删除失败: {}", temp, e);
+        }
+    }
+}
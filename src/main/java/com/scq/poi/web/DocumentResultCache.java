@@ -0,0 +1,237 @@
+package com.scq.poi.web;
+
+import com.scq.poi.utils.DigestUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 文档批注结果的磁盘缓存, 按内容寻址: key为上传文档的摘要、词典指纹和批注作者的摘要,
+ * 重复提交的相同文档(重试、分发给多个审核人等)直接返回保存的结果, 不再打开文档
+ * <p>
+ * 每个结果保存为缓存目录中的一个文件, 文件名为 key.批注数量.docx, 先写入临时文件再原子重命名, 不会读取到不完整的结果;
+ * 启动时扫描缓存目录恢复索引。结果文件的总大小超过上限时淘汰最久未使用的结果。
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 17:10
+ */
+@Slf4j
+public class DocumentResultCache {
+
+    private static final String SUFFIX = ".docx";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Pattern FILE_NAME = Pattern.compile("([0-9a-f]{64})\\.(\\d+)\\.docx");
+
+    private final Path directory;
+    private final long maxBytes;
+    /**
+     * 按访问顺序淘汰的结果, 访问时加锁
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param directory 缓存目录, 不存在时创建
+     * @param maxBytes  结果文件的总大小上限(字节)
+     * @throws IOException 缓存目录创建或读取异常
+     */
+    public DocumentResultCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("缓存大小上限必须大于0");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    /**
+     * 扫描缓存目录恢复索引, 按修改时间从旧到新加入, 删除未完成的临时文件
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (FILE_NAME.matcher(file.getFileName().toString()).matches()) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparing(DocumentResultCache::lastModified));
+        synchronized (entries) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    add(matcher.group(1), new Entry(file, Integer.parseInt(matcher.group(2)), Files.size(file)));
+                }
+            }
+        }
+        log.info("批注结果缓存: {}, 已有结果 {} 个, 共 {} 字节", directory, entries.size(), totalBytes);
+    }
+
+    /**
+     * 计算缓存的key
+     *
+     * @param inputDigest 上传文档的摘要, 见 {@link #digest(InputStream)}
+     * @param fingerprint 词典指纹, 词典内容不变时不变
+     * @param author      批注作者
+     * @return 十六进制SHA-256
+     */
+    public static String key(String inputDigest, String fingerprint, String author) {
+        return DigestUtils.sha256Hex((inputDigest + '\n' + fingerprint + '\n' + author).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 读取输入流的全部内容计算摘要, 输入流不会被关闭
+     *
+     * @return 十六进制SHA-256
+     */
+    public static String digest(InputStream input) throws IOException {
+        MessageDigest digest = DigestUtils.newSha256();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return DigestUtils.toHex(digest.digest());
+    }
+
+    /**
+     * 将缓存的结果复制到目标文件
+     *
+     * @param key    缓存的key
+     * @param target 目标文件, 已存在时覆盖
+     * @return 结果的批注数量, 没有缓存时返回-1
+     */
+    public int copyTo(String key, Path target) throws IOException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            try {
+                Files.copy(entry.file, target, StandardCopyOption.REPLACE_EXISTING);
+                hitCount.incrementAndGet();
+                return entry.commentCount;
+            } catch (NoSuchFileException e) {
+                // 复制前已被淘汰
+                log.debug("批注结果已被淘汰: {}", entry.file);
+            }
+        }
+        missCount.incrementAndGet();
+        return -1;
+    }
+
+    /**
+     * 保存结果, 结果文件不变, 已有相同key的结果时不保存
+     *
+     * @param key          缓存的key
+     * @param output       处理后的文档
+     * @param commentCount 新增的批注数量
+     */
+    public void put(String key, Path output, int commentCount) throws IOException {
+        synchronized (entries) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+        }
+        long size = Files.size(output);
+        if (size > maxBytes) {
+            return;
+        }
+        Path file = directory.resolve(key + "." + commentCount + SUFFIX);
+        Path temp = Files.createTempFile(directory, key, TEMP_SUFFIX);
+        try {
+            Files.copy(output, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        synchronized (entries) {
+            if (!entries.containsKey(key)) {
+                add(key, new Entry(file, commentCount, size));
+            }
+        }
+    }
+
+    /**
+     * 加入索引, 超过大小上限时淘汰最久未使用的结果, 调用时已加锁
+     */
+    private void add(String key, Entry entry) {
+        entries.put(key, entry);
+        totalBytes += entry.size;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.size;
+            try {
+                Files.deleteIfExists(eldest.file);
+            } catch (IOException e) {
+                log.warn("批注结果删除失败: {}", eldest.file, e);
+            }
+        }
+    }
+
+    /**
+     * 命中缓存的请求数
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * 未命中缓存的请求数
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 缓存的结果文件的总大小(字节)
+     */
+    public long getSizeInBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 缓存的结果: 结果文件, 批注数量, 文件大小
+     */
+    private static final class Entry {
+        private final Path file;
+        private final int commentCount;
+        private final long size;
+
+        private Entry(Path file, int commentCount, long size) {
+            this.file = file;
+            this.commentCount = commentCount;
+            this.size = size;
+        }
+    }
+}
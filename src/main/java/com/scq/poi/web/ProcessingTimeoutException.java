@@ -0,0 +1,14 @@
+package com.scq.poi.web;
+
+/**
+ * 文档已开始处理但处理时间超过上限, 重试也会同样超时, 返回422
+ *
+ * @author by suchangqin
+ * @date 2023/9/11 10:10
+ */
+public class ProcessingTimeoutException extends RuntimeException {
+
+    public ProcessingTimeoutException(String message) {
+        super(message);
+    }
+}
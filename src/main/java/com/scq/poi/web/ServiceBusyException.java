@@ -0,0 +1,14 @@
+package com.scq.poi.web;
+
+/**
+ * 批注服务繁忙: 等待队列已满或等待处理超时, 返回503
+ *
+ * @author by suchangqin
+ * @date 2023/9/6 10:20
+ */
+public class ServiceBusyException extends RuntimeException {
+
+    public ServiceBusyException(String message) {
+        super(message);
+    }
+}
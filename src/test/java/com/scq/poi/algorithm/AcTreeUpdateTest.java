@@ -0,0 +1,160 @@
+package com.scq.poi.algorithm;
+
+import com.scq.poi.dictionary.CompiledDictionary;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 增量更新的算法树与从相同敏感词重新构建的算法树匹配结果一致
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 18:40
+ */
+class AcTreeUpdateTest {
+
+    private static final String ALPHABET = "abcd";
+    private static final int ROUNDS = 40;
+
+    @Test
+    void updateMatchesRebuild() {
+        check(false);
+    }
+
+    @Test
+    void compiledUpdateMatchesRebuild() {
+        check(true);
+    }
+
+    @Test
+    void dictionaryUpdateMatchesCompile() {
+        Random random = new Random(7);
+        Map<String, String> live = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            live.put(randomWord(random), "批注" + i);
+        }
+        CompiledDictionary dictionary = CompiledDictionary.compile(live);
+        for (int round = 0; round < ROUNDS; round++) {
+            List<String> removed = pickRemoved(random, live.keySet());
+            Map<String, String> added = new HashMap<>();
+            for (int i = random.nextInt(20); i > 0; i--) {
+                added.put(randomWord(random), "批注" + round + "-" + i);
+            }
+            dictionary = dictionary.update(added, removed);
+            live.keySet().removeAll(removed);
+            live.putAll(added);
+
+            CompiledDictionary rebuilt = CompiledDictionary.compile(live);
+            assertEquals(rebuilt.getFingerprint(), dictionary.getFingerprint(), "round " + round);
+            String text = randomText(random);
+            assertEquals(hits(rebuilt, text), hits(dictionary, text), "round " + round);
+        }
+    }
+
+    private static void check(boolean compiled) {
+        Random random = new Random(compiled ? 13 : 11);
+        List<String> initial = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            initial.add(randomWord(random));
+        }
+        AcTree tree = new AcTree(initial, compiled);
+        // 敏感词ID到敏感词, 重复的敏感词共用第一个出现的ID
+        Map<Integer, String> idWords = new HashMap<>();
+        Set<String> live = new HashSet<>();
+        for (int i = 0; i < initial.size(); i++) {
+            if (live.add(initial.get(i))) {
+                idWords.put(i, initial.get(i));
+            }
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            List<String> removed = pickRemoved(random, live);
+            List<String> added = new ArrayList<>();
+            for (int i = random.nextInt(20); i > 0; i--) {
+                added.add(randomWord(random));
+            }
+            int patternCount = tree.getPatternCount();
+            tree = tree.update(added, removed);
+            live.removeAll(removed);
+            idWords.values().removeAll(removed);
+            Set<String> assigned = new HashSet<>();
+            for (int i = 0; i < added.size(); i++) {
+                // 已存在的敏感词改用新的ID, 本次重复新增的保留第一个
+                if (assigned.add(added.get(i))) {
+                    idWords.values().remove(added.get(i));
+                    idWords.put(patternCount + i, added.get(i));
+                    live.add(added.get(i));
+                }
+            }
+            assertEquals(compiled, tree.isCompiled());
+
+            List<String> liveWords = new ArrayList<>(live);
+            AcTree rebuilt = new AcTree(liveWords, compiled);
+            Map<Integer, String> rebuiltWords = new HashMap<>();
+            for (int i = 0; i < liveWords.size(); i++) {
+                rebuiltWords.put(i, liveWords.get(i));
+            }
+            for (String word : liveWords) {
+                assertEquals(word, idWords.get(tree.find(word)), "round " + round);
+            }
+            for (String word : removed) {
+                if (!live.contains(word)) {
+                    assertEquals(AcTree.NONE, tree.find(word), "round " + round);
+                }
+            }
+            String text = randomText(random);
+            assertEquals(hits(rebuilt, rebuiltWords, text), hits(tree, idWords, text), "round " + round);
+        }
+    }
+
+    private static List<String> pickRemoved(Random random, Set<String> live) {
+        List<String> candidates = new ArrayList<>(live);
+        Collections.shuffle(candidates, random);
+        List<String> removed = new ArrayList<>(candidates.subList(0, Math.min(candidates.size(), random.nextInt(20))));
+        // 删除不存在的敏感词不影响结果
+        removed.add(randomWord(random) + "x");
+        return removed;
+    }
+
+    private static Set<String> hits(AcTree tree, Map<Integer, String> idWords, String text) {
+        Set<String> hits = new TreeSet<>();
+        new AcMatchUtils(tree).match(text, (start, end, patternId) -> {
+            assertEquals(text.substring(start, end), idWords.get(patternId));
+            hits.add(start + ":" + end);
+        });
+        return hits;
+    }
+
+    private static Set<String> hits(CompiledDictionary dictionary, String text) {
+        Set<String> hits = new TreeSet<>();
+        dictionary.getMatcher().match(text, (start, end, patternId) ->
+                hits.add(start + ":" + dictionary.getWord(patternId) + ":" + dictionary.getComment(patternId)));
+        return hits;
+    }
+
+    private static String randomWord(Random random) {
+        return randomString(random, 1 + random.nextInt(5));
+    }
+
+    private static String randomText(Random random) {
+        return randomString(random, 2000);
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return builder.toString();
+    }
+}
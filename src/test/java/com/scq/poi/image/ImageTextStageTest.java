@@ -0,0 +1,64 @@
+package com.scq.poi.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 图片文本提取阶段的缓存
+ *
+ * @author by suchangqin
+ * @date 2023/9/8 18:40
+ */
+class ImageTextStageTest {
+
+    private static final byte[] LOGO = "logo".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] STAMP = "stamp".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void sameImageIsExtractedOnce() throws Exception {
+        StubImageTextExtractor extractor = new StubImageTextExtractor(
+                Collections.singletonMap(ImageTextStage.digest(LOGO), "公司标志"), "");
+        try (ImageTextStage stage = new ImageTextStage(extractor, 2, 16, 16)) {
+            assertEquals("公司标志", stage.extract(LOGO, "image/png").get());
+            assertEquals("公司标志", stage.extract(LOGO.clone(), "image/png").get());
+            assertEquals("", stage.extract(STAMP, "image/png").get());
+            assertEquals(2, extractor.getCallCount());
+            assertEquals(1, stage.getHitCount());
+            assertEquals(2, stage.getMissCount());
+        }
+    }
+
+    @Test
+    void failedExtractionIsNotCached() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ImageTextExtractor extractor = (data, contentType) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("OCR服务不可用");
+            }
+            return "印章";
+        };
+        try (ImageTextStage stage = new ImageTextStage(extractor, 1, 16, 16)) {
+            assertThrows(ExecutionException.class, () -> stage.extract(STAMP, "image/png").get());
+            assertEquals("印章", stage.extract(STAMP, "image/png").get());
+            assertEquals(2, calls.get());
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedImageIsEvicted() throws Exception {
+        StubImageTextExtractor extractor = new StubImageTextExtractor();
+        try (ImageTextStage stage = new ImageTextStage(extractor, 1, 16, 1)) {
+            stage.extract(LOGO, "image/png").get();
+            stage.extract(STAMP, "image/png").get();
+            stage.extract(LOGO, "image/png").get();
+            assertEquals(3, extractor.getCallCount());
+        }
+    }
+}